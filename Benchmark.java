@@ -0,0 +1,412 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Benchmarks of the object store, whose main program may be invoked as
+ *      java gitlet.Benchmark NAME [ARGUMENTS...]
+ *  Each benchmark builds a synthetic repository in a temporary folder,
+ *  times one operation on it, prints the result and deletes the folder.
+ *  The benchmarks are
+ *      log [COMMITS [FILES]]  Reading the history of COMMITS commits of a
+ *                             tree of FILES files, as log does, compared
+ *                             with reading every commit whole.
+ *      chunks [KB [EDITS]]    Storing EDITS versions of a text file of KB
+ *                             kilobytes, each a few small edits away from
+ *                             the last: bytes stored with chunking against
+ *                             whole blobs, and write and read throughput.
+ *      ids [COMMITS]          Walking the ancestry of COMMITS commits with
+ *                             the seen set holding Strings, then
+ *                             ObjectIds: heap held by the set, time spent
+ *                             collecting garbage and time taken.
+ *      hash [COUNT]           Hashing COUNT small objects the way every
+ *                             ID used to be made (a new MessageDigest and
+ *                             a Formatter each time), then with each
+ *                             HashAlgorithm.
+ *      durable [COMMITS [FILES]]
+ *                             Making COMMITS commits of FILES changed
+ *                             files each: buffered, as by default;
+ *                             forcing every file to disk as it is
+ *                             written; and forcing each commit's files
+ *                             together before its ref, as a durable
+ *                             repository does.
+ *  @author Jackie Lian
+ */
+public class Benchmark {
+
+    /** Names of the benchmarks. */
+    static final List<String> NAMES = Arrays.asList("log", "chunks", "ids",
+            "hash", "durable");
+
+    /** Number of bytes in a kilobyte. */
+    private static final int KB = 1024;
+
+    /** Runs the benchmark named by ARGS[0], with the rest of ARGS as its
+     *  arguments. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            Main.errorAndExit("Usage: java gitlet.Benchmark NAME [ARGS...]");
+        } else if (!NAMES.contains(args[0])) {
+            Main.errorAndExit("No benchmark with that name exists.");
+        }
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            if (args[0].equals("log")) {
+                log(dir, intArg(args, 1, 2000), intArg(args, 2, 5000));
+            } else if (args[0].equals("chunks")) {
+                chunks(dir, intArg(args, 1, 1024), intArg(args, 2, 50));
+            } else if (args[0].equals("ids")) {
+                ids(intArg(args, 1, 1000000));
+            } else if (args[0].equals("hash")) {
+                hash(intArg(args, 1, 500000));
+            } else if (args[0].equals("durable")) {
+                durable(dir, intArg(args, 1, 200), intArg(args, 2, 10));
+            }
+        } finally {
+            Utils.deleteTree(dir);
+        }
+    }
+
+    /** Times reading the history of COMMITS commits, each changing one of
+     *  FILES files, in a repository in DIR: first reading only the headers
+     *  of the commits, as log does, then reading them whole. */
+    static void log(File dir, int commits, int files) {
+        ObjectStore store = newStore(dir);
+        Commit commit = new Commit();
+        String id = commit.getSHA1();
+        store.writeCommit(id, commit);
+        List<String> history = new ArrayList<>();
+        history.add(id);
+        for (int k = 1; k <= commits; k += 1) {
+            Commit next = new Commit("commit " + k, id, "", "master",
+                    commit);
+            if (k == 1) {
+                for (int f = 0; f < files; f += 1) {
+                    next.getBlobs().put("file" + f, Utils.sha1("file" + f));
+                }
+            } else {
+                next.getBlobs().put("file" + k % files, Utils.sha1("" + k));
+            }
+            commit = next;
+            id = commit.getSHA1();
+            store.writeCommit(id, commit);
+            history.add(0, id);
+        }
+
+        long start = System.nanoTime();
+        ObjectStore fresh = new ObjectStore(dir);
+        for (String commitID : history) {
+            fresh.readCommit(commitID).getMessage();
+        }
+        long headers = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        fresh = new ObjectStore(dir);
+        for (String commitID : history) {
+            fresh.readCommit(commitID).getBlobs();
+        }
+        long whole = System.nanoTime() - start;
+
+        Utils.message("log over %d commits of %d files: %d ms reading "
+                + "headers, %d ms reading whole commits (%.1fx).",
+                commits, files, headers / 1000000, whole / 1000000,
+                (double) whole / Math.max(headers, 1));
+    }
+
+    /** Times writing EDITS versions of a file of KB kilobytes of text to a
+     *  store in DIR, each version made from the last by changing, inserting
+     *  and deleting a few bytes at random places, then reading every
+     *  version back to a file. Compares the bytes stored with the bytes the
+     *  versions would take as whole blobs. */
+    static void chunks(File dir, int kb, int edits) throws IOException {
+        ObjectStore store = newStore(dir);
+        Random random = new Random(KB);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < kb * KB) {
+            text.append("line ").append(text.length()).append(' ');
+            for (int k = 0; k < 60; k += 1) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append('\n');
+        }
+        List<Blob> versions = new ArrayList<>();
+        for (int v = 0; v < edits; v += 1) {
+            for (int e = 0; e < 3; e += 1) {
+                int at = random.nextInt(text.length() - 16);
+                switch (e) {
+                case 0:
+                    text.setCharAt(at, (char) ('A' + random.nextInt(26)));
+                    break;
+                case 1:
+                    text.insert(at, "inserted " + v);
+                    break;
+                default:
+                    text.delete(at, at + 1 + random.nextInt(16));
+                    break;
+                }
+            }
+            versions.add(new Blob("file.txt", text.toString()));
+        }
+        long logical = 0;
+        long whole = 0;
+        List<String> ids = new ArrayList<>();
+        for (Blob blob : versions) {
+            logical += blob.getContent().length();
+            whole += Utils.serialize(blob).length;
+            ids.add(blob.getSHA1());
+        }
+
+        long start = System.nanoTime();
+        for (int v = 0; v < versions.size(); v += 1) {
+            store.writeBlob(ids.get(v), versions.get(v));
+        }
+        long write = System.nanoTime() - start;
+        long stored = folderSize(Utils.join(dir, ObjectStore.BLOBS))
+                + folderSize(Utils.join(dir, ObjectStore.CHUNKS));
+
+        File out = Utils.join(dir, "out");
+        start = System.nanoTime();
+        for (String id : ids) {
+            store.writeBlobTo(id, out);
+        }
+        long read = System.nanoTime() - start;
+
+        Utils.message("chunks over %d versions of %d KB: %d bytes stored "
+                + "against %d as whole blobs (%.1fx less); writing %.1f "
+                + "MB/s, reading %.1f MB/s.", edits, kb, stored, whole,
+                (double) whole / Math.max(stored, 1),
+                logical / 1e6 / Math.max(write / 1e9, 1e-9),
+                logical / 1e6 / Math.max(read / 1e9, 1e-9));
+    }
+
+    /** Times walking the ancestry of the newest of COMMITS commits, each
+     *  a merge of the one before it and one further back, whose parents
+     *  are given as SHA1 Strings as commits give them. The walk is done
+     *  with a HashSet of Strings, then with an ObjectIdSet. */
+    static void ids(int commits) {
+        String[][] parents = new String[commits][];
+        String[] names = new String[commits];
+        Map<String, Integer> position = new HashMap<>();
+        for (int k = 0; k < commits; k += 1) {
+            names[k] = Utils.sha1("commit " + k);
+            position.put(names[k], k);
+            parents[k] = k == 0 ? new String[0] : new String[] {
+                Utils.sha1("commit " + (k - 1)),
+                Utils.sha1("commit " + (k / 2))
+            };
+        }
+        for (int round = 0; round < 2; round += 1) {
+            for (boolean packed : new boolean[] { false, true }) {
+                long heap = usedHeap();
+                long gcBefore = gcMillis();
+                long start = System.nanoTime();
+                Object seen = walk(names[commits - 1], parents, position,
+                        packed);
+                long time = System.nanoTime() - start;
+                long gc = gcMillis() - gcBefore;
+                long held = usedHeap() - heap;
+                if (round == 1) {
+                    Utils.message("ids over %d commits with %s: %.1f MB "
+                            + "held (%d bytes each), %d ms in gc, %d ms.",
+                            commits, packed ? "ObjectIdSet" : "HashSet",
+                            held / 1e6, held / commits, gc,
+                            time / 1000000);
+                }
+                seen.hashCode();
+            }
+        }
+    }
+
+    /** Walks the ancestry of HEAD, where PARENTS gives the parents of the
+     *  commit at each POSITION, keeping the SHA1s seen in an ObjectIdSet
+     *  iff PACKED and otherwise in a HashSet. Returns that set. */
+    private static Object walk(String head, String[][] parents,
+                               Map<String, Integer> position,
+                               boolean packed) {
+        HashSet<String> strings = new HashSet<>();
+        ObjectIdSet ids = new ObjectIdSet();
+        ArrayDeque<String> fringe = new ArrayDeque<>();
+        fringe.add(head);
+        while (!fringe.isEmpty()) {
+            String id = fringe.poll();
+            /* A fresh copy, as reading a commit gives. */
+            id = new String(id.toCharArray());
+            if (packed ? ids.add(id) : strings.add(id)) {
+                fringe.addAll(Arrays.asList(parents[position.get(id)]));
+            }
+        }
+        return packed ? ids : strings;
+    }
+
+    /** Times hashing COUNT objects of about the size of a commit header,
+     *  first as Utils.sha1 used to, then with each HashAlgorithm. */
+    static void hash(int count) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        for (int k = 0; k < count; k += 1) {
+            inputs.add("commit " + k + " " + Utils.sha1("parent " + k)
+                    + " master Wed Dec 31 16:00:00 1969 -0800 message " + k);
+        }
+        HashAlgorithm saved = HashAlgorithm.current();
+        try {
+            for (int round = 0; round < 2; round += 1) {
+                long start = System.nanoTime();
+                for (String input : inputs) {
+                    legacySha1(input);
+                }
+                report(round, "legacy sha1", count, System.nanoTime() - start);
+                for (HashAlgorithm algorithm : HashAlgorithm.ALL) {
+                    HashAlgorithm.use(algorithm);
+                    start = System.nanoTime();
+                    for (String input : inputs) {
+                        Utils.sha1(input);
+                    }
+                    report(round, algorithm.getName(), count,
+                            System.nanoTime() - start);
+                }
+            }
+        } finally {
+            HashAlgorithm.use(saved);
+        }
+    }
+
+    /** Prints the time NANOS taken to hash COUNT objects as NAME, unless
+     *  ROUND is the warm-up round 0. */
+    private static void report(int round, String name, int count,
+                               long nanos) {
+        if (round > 0) {
+            Utils.message("hash of %d objects with %s: %d ms, %d ns each.",
+                    count, name, nanos / 1000000, nanos / count);
+        }
+    }
+
+    /** Returns the SHA-1 of INPUT as Utils.sha1 used to make it. */
+    private static String legacySha1(String input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(input.getBytes(StandardCharsets.UTF_8));
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the bytes of heap in use after collecting garbage. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int k = 0; k < 3; k += 1) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Returns the total time spent collecting garbage so far, in
+     *  milliseconds. */
+    private static long gcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean bean
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, bean.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** Times making COMMITS commits in repositories in DIR, each commit
+     *  changing FILES files and then updating a ref, in three ways: without
+     *  forcing anything to disk; forcing each file to disk, with its
+     *  folder, as soon as it is written; and, as a durable repository
+     *  does, forcing all the files of a commit together, then their
+     *  folders, then the ref. */
+    static void durable(File dir, int commits, int files) {
+        String[] modes = { "buffered", "per-file", "grouped" };
+        for (String mode : modes) {
+            File repoDir = Utils.join(dir, mode);
+            repoDir.mkdirs();
+            if (!mode.equals("buffered")) {
+                Utils.writeContents(
+                        Utils.join(repoDir, WriteBatch.DURABLE_FILE), "");
+            }
+            ObjectStore store = newStore(repoDir);
+            boolean eachFile = mode.equals("per-file");
+            File ref = Utils.join(repoDir, "repo");
+            Commit commit = new Commit();
+            String id = commit.getSHA1();
+            store.writeCommit(id, commit);
+            long start = System.nanoTime();
+            for (int k = 1; k <= commits; k += 1) {
+                Commit next = new Commit("commit " + k, id, "", "master",
+                        commit);
+                for (int f = 0; f < files; f += 1) {
+                    Blob blob = new Blob("file" + f, k + " " + f + "\n");
+                    store.writeBlob(blob.getSHA1(), blob);
+                    if (eachFile) {
+                        store.batch().sync();
+                    }
+                    next.getBlobs().put(blob.getName(), blob.getSHA1());
+                }
+                commit = next;
+                id = commit.getSHA1();
+                store.writeCommit(id, commit);
+                if (eachFile) {
+                    store.batch().sync();
+                }
+                store.batch().publish(ref,
+                        id.getBytes(StandardCharsets.UTF_8));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Utils.message("durable %s: %d commits of %d files, %.0f "
+                    + "commits/s.", mode, commits, files,
+                    commits / Math.max(seconds, 1e-9));
+        }
+    }
+
+    /** Returns the total length of the files in DIR. */
+    private static long folderSize(File dir) {
+        long result = 0;
+        List<String> names = Utils.plainFilenamesIn(dir);
+        for (String name : names == null ? new ArrayList<String>() : names) {
+            result += Utils.join(dir, name).length();
+        }
+        return result;
+    }
+
+    /** Returns ARGS[K] as an integer, or DEFAULTVALUE if there is none. */
+    private static int intArg(String[] args, int k, int defaultValue) {
+        if (args.length <= k) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(args[k]);
+        } catch (NumberFormatException excp) {
+            Main.errorAndExit("Not a number: " + args[k]);
+            return defaultValue;
+        }
+    }
+
+    /** Returns an empty object store in DIR. */
+    private static ObjectStore newStore(File dir) {
+        for (String kind : ObjectStore.KINDS) {
+            Utils.join(dir, kind).mkdirs();
+        }
+        Utils.join(dir, Pack.PACK_DIR).mkdirs();
+        return new ObjectStore(dir);
+    }
+}
@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/** Finds the commit that last changed each line of a file. The walk goes
+ *  back from the head one commit at a time, carrying only the lines not
+ *  yet explained. A commit whose Bloom filter shows it left the file alone
+ *  is passed over by its header alone, and a merge that took the file from
+ *  one of its parents passes straight to that parent, so the files of a
+ *  commit are read, and two versions of the file compared, only where the
+ *  file changed. A line that survives a change is followed into the older
+ *  version; the others are charged to the commit that changed them.
+ *  @author Jackie Lian
+ */
+class Blame {
+
+    /** A blame over the commits in STORE, which stops at the commits in
+     *  SHALLOW and reads the content of a blob through CONTENTS. */
+    Blame(ObjectStore store, Set<String> shallow,
+          Function<String, String> contents) {
+        _store = store;
+        _shallow = shallow;
+        _contents = contents;
+    }
+
+    /** Returns the SHA1 of the commit that last changed each line of the
+     *  file FILENAME as it is in the commit HEAD, which must track it. */
+    String[] blame(String head, String filename) {
+        String blob = _store.readCommit(head).getBlob(filename);
+        List<String> lines = lines(_contents.apply(blob));
+        String[] result = new String[lines.size()];
+        int[] position = new int[lines.size()];
+        List<Integer> tracked = new ArrayList<>();
+        for (int i = 0; i < position.length; i += 1) {
+            position[i] = i;
+            tracked.add(i);
+        }
+        String id = head;
+        while (!tracked.isEmpty()) {
+            Commit commit = _store.readCommit(id);
+            String same = sameParent(id, commit, filename, blob);
+            if (same != null) {
+                id = same;
+                continue;
+            }
+            String parent = commit.getParent();
+            String parentBlob = null;
+            if (!parent.equals("") && !_shallow.contains(id)
+                    && _store.contains(ObjectStore.COMMITS, parent)) {
+                parentBlob = _store.manifest(parent).get(filename);
+            }
+            if (parentBlob == null) {
+                for (int i : tracked) {
+                    result[i] = id;
+                }
+                break;
+            }
+            List<String> parentLines = lines(_contents.apply(parentBlob));
+            int[] toParent = match(parentLines, lines);
+            List<Integer> left = new ArrayList<>();
+            for (int i : tracked) {
+                if (toParent[position[i]] < 0) {
+                    result[i] = id;
+                } else {
+                    position[i] = toParent[position[i]];
+                    left.add(i);
+                }
+            }
+            tracked = left;
+            lines = parentLines;
+            blob = parentBlob;
+            id = parent;
+        }
+        return result;
+    }
+
+    /** Returns the lines of CONTENT, without their line terminators. */
+    static List<String> lines(String content) {
+        List<String> result = new ArrayList<>(Arrays.asList(
+                content.split("\n", -1)));
+        if (result.get(result.size() - 1).isEmpty()) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    /** Returns a parent of COMMIT, whose SHA1 is ID, whose version of the
+     *  file FILENAME is the blob BLOB, or null if there is none. */
+    private String sameParent(String id, Commit commit, String filename,
+                              String blob) {
+        if (_shallow.contains(id)) {
+            return null;
+        }
+        String[] parents = { commit.getParent(), commit.getSecondParent() };
+        if (!parents[0].equals("")
+                && !BloomFilter.mightContain(commit.getPathFilter(),
+                        filename)
+                && _store.contains(ObjectStore.COMMITS, parents[0])) {
+            return parents[0];
+        }
+        for (String parent : parents) {
+            if (!parent.equals("")
+                    && _store.contains(ObjectStore.COMMITS, parent)
+                    && blob.equals(_store.manifest(parent).get(filename))) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    /** Returns, for each line of NEWER, its position in OLDER if it is
+     *  kept from there, and otherwise -1. */
+    private static int[] match(List<String> older, List<String> newer) {
+        Diff diff = new Diff();
+        diff.setSequences(older, newer);
+        int[] common = diff.linearCommonSubsequence();
+        int[] result = new int[newer.size()];
+        Arrays.fill(result, -1);
+        for (int k = 0; k < common.length; k += 3) {
+            for (int j = 0; j < common[k + 2]; j += 1) {
+                result[common[k + 1] + j] = common[k] + j;
+            }
+        }
+        return result;
+    }
+
+    /** The store the commits are read from. */
+    private final ObjectStore _store;
+
+    /** The shallow commits, whose parents are not present. */
+    private final Set<String> _shallow;
+
+    /** Returns the content of a blob, given its SHA1. */
+    private final Function<String, String> _contents;
+}
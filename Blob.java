@@ -6,6 +6,10 @@ import java.util.List;
 
 public class Blob implements Serializable {
 
+    /** The serialVersionUID Blob has always had, fixed so that the blobs
+     *  already stored stay readable if Blob changes. */
+    private static final long serialVersionUID = -3715722466890368961L;
+
     /** Name of the blob.*/
     private String _name;
 
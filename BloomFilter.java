@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/** Bloom filters over file names, kept as plain byte arrays. A filter
+ *  answers whether a name may be in the set it was made from: a name in
+ *  the set is always reported, and a name outside it is wrongly reported
+ *  about one time in a hundred. Each commit carries a filter of the files
+ *  it changed, so a walk looking for one file can pass over most commits
+ *  without comparing their files with their parents'.
+ *  @author Jackie Lian
+ */
+class BloomFilter {
+
+    /** Number of bits per name. */
+    static final int BITS_PER_NAME = 10;
+
+    /** Number of bits set for each name. */
+    static final int HASHES = 7;
+
+    /** Largest set of names given a filter of its own. Larger sets get
+     *  null, which reports every name. */
+    static final int MAX_NAMES = 512;
+
+    /** Returns a filter of NAMES, or null if there are too many. */
+    static byte[] of(Collection<String> names) {
+        if (names.size() > MAX_NAMES) {
+            return null;
+        }
+        byte[] bits = new byte[Math.max(1,
+                (names.size() * BITS_PER_NAME + 7) / 8)];
+        for (String name : names) {
+            long hash = hash(name);
+            for (int i = 0; i < HASHES; i += 1) {
+                int bit = bit(hash, i, bits.length * 8);
+                bits[bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        return bits;
+    }
+
+    /** Returns false if NAME is certainly not among the names FILTER was
+     *  made from. A null FILTER may hold anything. */
+    static boolean mightContain(byte[] filter, String name) {
+        if (filter == null) {
+            return true;
+        }
+        long hash = hash(name);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = bit(hash, i, filter.length * 8);
+            if ((filter[bit / 8] & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the Ith of the bits, out of SIZE, that are set for a name
+     *  whose hash is HASH. The bits come from two halves of HASH combined
+     *  as in double hashing. */
+    private static int bit(long hash, int i, int size) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + i * h2, size);
+    }
+
+    /** Returns the 64-bit FNV-1a hash of the UTF-8 bytes of NAME. */
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
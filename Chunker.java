@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Cuts large contents into chunks at points chosen by the content itself,
+ *  so that an edit moves only the chunk boundaries near it and the other
+ *  chunks of the new version are the same as those of the old. A rolling
+ *  "gear" hash is updated with each byte, and a chunk ends where the hash
+ *  has zeros in every bit of a mask, as in FastCDC: no chunk is cut before
+ *  MIN_SIZE bytes, a stricter mask is used up to AVERAGE_SIZE bytes and a
+ *  looser one after it, which keeps chunks near the average size, and a
+ *  chunk is always cut at MAX_SIZE bytes.
+ *  @author Jackie Lian
+ */
+class Chunker {
+
+    /** Least length of a content that is chunked. Smaller blobs are kept
+     *  whole. */
+    static final int THRESHOLD = 64 * 1024;
+
+    /** Least length of a chunk, except the last. */
+    static final int MIN_SIZE = 2 * 1024;
+
+    /** Usual length of a chunk. */
+    static final int AVERAGE_SIZE = 8 * 1024;
+
+    /** Greatest length of a chunk. */
+    static final int MAX_SIZE = 64 * 1024;
+
+    /** Mask tested before AVERAGE_SIZE bytes: two bits more than the
+     *  average size calls for, so that early cuts are rare. */
+    private static final long MASK_SMALL = mask(15);
+
+    /** Mask tested after AVERAGE_SIZE bytes: two bits fewer. */
+    private static final long MASK_LARGE = mask(11);
+
+    /** Returns the ends of the chunks of DATA, in order. */
+    static List<Integer> cut(byte[] data) {
+        List<Integer> result = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            start = nextCut(data, start);
+            result.add(start);
+        }
+        return result;
+    }
+
+    /** Returns the end of the chunk of DATA that starts at START. */
+    private static int nextCut(byte[] data, int start) {
+        int left = data.length - start;
+        if (left <= MIN_SIZE) {
+            return data.length;
+        }
+        int normal = Math.min(left, AVERAGE_SIZE);
+        int max = Math.min(left, MAX_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return start + i + 1;
+            }
+        }
+        for (; i < max; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return start + i + 1;
+            }
+        }
+        return start + max;
+    }
+
+    /** Returns a mask of BITS bits spread over the top 48 bits of a long.
+     *  The top bits of the gear hash depend on more of the bytes before
+     *  them than the bottom ones do. */
+    private static long mask(int bits) {
+        long result = 0;
+        int spacing = 48 / bits;
+        for (int k = 0; k < bits; k += 1) {
+            result |= 1L << (63 - k * spacing);
+        }
+        return result;
+    }
+
+    /** The value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long x = 0x2545f4914f6cdd1dL;
+        for (int b = 0; b < GEAR.length; b += 1) {
+            x += 0x9e3779b97f4a7c15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[b] = z ^ (z >>> 31);
+        }
+    }
+}
@@ -1,29 +1,116 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+/** A commit. Most commits store only how their files differ from those of
+ *  their first parent; every CHECKPOINT_INTERVAL commits along a line of
+ *  first parents, one stores all of them, so rebuilding the files of any
+ *  commit reads at most that many commits.
+ *
+ *  A stored commit starts with the length of its header, then the header,
+ *  which holds everything but its files, then its files. Log and find read
+ *  only the header; the files are read on the first call to getFiles or
+ *  getBlobs. The files are written as FILES_MAGIC, whether they are all
+ *  the files of the commit, their number, and each in order of name: the
+ *  length of the start its name shares with the name before, the rest of
+ *  its name, and the length and bytes of its blob SHA1, with no bytes for
+ *  a file removed.
+ *
+ *  The first version of Gitlet stored each commit whole, as a Java object
+ *  holding all of its blobs. Such a commit is still read, as a checkpoint,
+ *  and rewritten in parts by Repo.upgrade.
+ *
+ *  The parents are held as ObjectIds, and stored, as they always were, as
+ *  their hexadecimal numerals, the empty string standing for no parent. */
 public class Commit implements Serializable {
 
+    /** The serialVersionUID of the first version of Commit, so that the
+     *  commits it stored can still be read. */
+    private static final long serialVersionUID = -6378611010947437180L;
+
+    /** Name of the field that held the blobs of a commit stored whole. */
+    private static final String WHOLE_BLOBS = "_blobs";
+
+    /** The fields of the stored header, with the types they are stored
+     *  as. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("_msg", String.class),
+        new ObjectStreamField("_parent", String.class),
+        new ObjectStreamField("_secondParent", String.class),
+        new ObjectStreamField("_chain", int.class),
+        new ObjectStreamField("_pathFilter", byte[].class),
+        new ObjectStreamField("_timestamp", Date.class),
+        new ObjectStreamField("_currBranch", String.class),
+    };
+
+    /** Number of commits from one checkpoint to the next. */
+    static final int CHECKPOINT_INTERVAL = 32;
+
+    /** Number at the start of the files of a stored commit. */
+    static final int FILES_MAGIC = 0x46494c53;
+
     /** Stores the MESSAGE of this commit. */
     private String _msg;
 
-    /** Stores the SHA1 of the parent.*/
-    private String _parent;
-
-    /** Path to the folder that stores all commits in this repo.*/
-    private File _commits = Utils.join(Main.getGitlet(), "commits/");
+    /** Stores the SHA1 of the parent, or null if there is none.*/
+    private ObjectId _parent;
 
-    /** Stores the SHA1 of the second parent.*/
-    private String _secondParent;
+    /** Stores the SHA1 of the second parent, or null if there is none.*/
+    private ObjectId _secondParent;
 
     /** Stores the blobs tracked by this commits. KEY is the file name,
-     * value is the SHA1 of the file.*/
-    private HashMap<String, String> _blobs;
+     * value is the SHA1 of the file. Rebuilt on first use.*/
+    private transient HashMap<String, String> _blobs;
+
+    /** The files of a commit read from a store, once rebuilt. */
+    private transient Manifest _files;
+
+    /** The files stored with a commit read from a store, once read: all
+     *  of them if _storesAll, otherwise those changed since the first
+     *  parent, with null for those removed. */
+    private transient TreeMap<String, ObjectId> _stored;
+
+    /** True iff _stored holds all the files of this commit. */
+    private transient boolean _storesAll;
+
+    /** Number of commits since the last checkpoint along the line of first
+     *  parents; 0 for a checkpoint. */
+    private int _chain;
+
+    /** A Bloom filter of the names of the files this commit added, changed
+     *  or removed relative to its first parent, or null if there are too
+     *  many for one. */
+    private byte[] _pathFilter;
+
+    /** The files of the first parent of a commit that has not been
+     *  written yet, which its changes are found against. */
+    private transient Manifest _base;
+
+    /** The store this commit was read from, which holds its files and its
+     *  parents. */
+    private transient ObjectStore _store;
+
+    /** The SHA1 of this commit, once known: the one it was read under,
+     *  which for an older commit is not the hash of its canonical form,
+     *  or the one getSHA1 found. */
+    private transient String _id;
+
+    /** Where the files of this commit start in its stored form. */
+    private transient int _filesOffset;
 
     /** The timestamp of this commit.*/
     private Date _timestamp;
@@ -32,25 +119,27 @@ public class Commit implements Serializable {
     private String _currBranch;
 
     public Commit() {
-        _parent = "";
-        _secondParent = "";
         _timestamp = new Date(0);
         _msg = "initial commit";
         _blobs = new HashMap<>();
         _currBranch = "master";
+        _chain = 0;
     }
 
 
+    /** A commit with message MSG whose parents are PARENT and SECONDPARENT,
+     *  made on BRANCH. It starts out tracking the blobs of PARENTCOMMIT,
+     *  the commit whose SHA1 is PARENT. */
     public Commit(String msg, String parent, String secondParent,
-                  String branch) {
+                  String branch, Commit parentCommit) {
         this._msg = msg;
-        this._parent = parent;
-        this._secondParent = secondParent;
+        this._parent = idOf(parent);
+        this._secondParent = idOf(secondParent);
         _timestamp = new Date();
-        Commit parentCommit = Utils.readObject(Utils.join(_commits, parent),
-                Commit.class);
-        _blobs = parentCommit.getBlobs();
+        _base = parentCommit.getFiles();
+        _blobs = _base.toMap();
         _currBranch = branch;
+        _chain = (parentCommit._chain + 1) % CHECKPOINT_INTERVAL;
     }
 
     public String getMessage() {
@@ -58,22 +147,96 @@ public class Commit implements Serializable {
     }
 
     public String getParent() {
-        return _parent;
+        return numeral(_parent);
     }
 
     public String getSecondParent() {
+        return numeral(_secondParent);
+    }
+
+    /** Returns the SHA1 of the parent, or null if there is none. */
+    ObjectId getParentId() {
+        return _parent;
+    }
+
+    /** Returns the SHA1 of the second parent, or null if there is none. */
+    ObjectId getSecondParentId() {
         return _secondParent;
     }
 
+    /** Returns the ID whose numeral is HEX, or null if HEX is empty or
+     *  null. */
+    private static ObjectId idOf(String hex) {
+        return hex == null || hex.isEmpty() ? null : ObjectId.fromHex(hex);
+    }
+
+    /** Returns the numeral of ID, or an empty string if ID is null. */
+    private static String numeral(ObjectId id) {
+        return id == null ? "" : id.toString();
+    }
+
+    /** Returns the blobs tracked by this commit. Only a commit that has
+     *  not been written yet may change the result. */
     public HashMap<String, String> getBlobs() {
+        if (_blobs == null) {
+            _blobs = getFiles().toMap();
+        }
         return _blobs;
     }
 
+    /** Returns the files of this commit. Those of a commit read from a
+     *  store are named in the PathTable of the store and kept; those of a
+     *  commit not yet written are found afresh from its blobs. */
+    Manifest getFiles() {
+        if (_store == null) {
+            return Manifest.of(_blobs,
+                    _base == null ? new PathTable() : _base.getTable());
+        }
+        if (_files == null) {
+            readFiles();
+            if (_storesAll) {
+                _files = Manifest.ofIds(_stored, _store.paths());
+            } else {
+                _files = _store.manifest(_parent.toString())
+                        .apply(_stored);
+            }
+        }
+        return _files;
+    }
+
+    /** Returns the SHA1 of the blob of the file NAME in this commit, or
+     *  null if it does not track NAME. Unlike getBlobs, this makes no map
+     *  of all the files of a commit read from a store. */
+    String getBlob(String name) {
+        if (_blobs != null) {
+            return _blobs.get(name);
+        }
+        return getFiles().get(name);
+    }
+
+    /** Makes this commit store all of its blobs when written, so that they
+     *  can be rebuilt without its parents, and returns it. */
+    Commit checkpoint() {
+        getFiles();
+        _chain = 0;
+        return this;
+    }
+
+    /** Records that this commit was read from STORE under the SHA1 ID,
+     *  with its files starting at FILESOFFSET in its stored form. */
+    void setSource(ObjectStore store, String id, int filesOffset) {
+        _store = store;
+        _id = id;
+        _filesOffset = filesOffset;
+    }
+
     public void addBlob(Blob blob) {
+        _id = null;
         _blobs.put(blob.getName(), blob.getSHA1());
     }
 
     public void removeBlob(Blob blob) {
+        _id = null;
         _blobs.remove(blob.getName());
     }
 
@@ -81,22 +244,205 @@ public class Commit implements Serializable {
         return _timestamp;
     }
 
+    /** Returns a Bloom filter of the files this commit changed relative
+     *  to its first parent, for BloomFilter.mightContain. */
+    byte[] getPathFilter() {
+        return _pathFilter;
+    }
+
     public String getBranch() {
         return _currBranch;
     }
 
+    /** Returns the SHA1 of this commit: the one it was read under, or, for
+     *  a commit not yet written, the hash of its canonical form, found on
+     *  the first call and kept. A new commit must have all of its blobs
+     *  before that call. A commit written before commits were named by
+     *  their canonical form, including one stored whole and rewritten by
+     *  Repo.upgrade, was named by the hash of another form, and its
+     *  canonical form does not hash to its name. It keeps its name all
+     *  the same, since its children and the branches refer to it by that
+     *  name, so a stored commit must never be checked, or renamed, by
+     *  hashing it again. */
     public String getSHA1() {
-        List<Object> info = new ArrayList<Object>();
-        info.add(_parent);
-        info.add(_msg);
-        if (_blobs != null) {
-            info.addAll(_blobs.values());
+        if (_id == null) {
+            _id = Utils.sha1(canonicalForm());
         }
-        info.add(_timestamp.toString());
-        return Utils.sha1(info);
+        return _id;
     }
 
+    /** Returns the bytes this commit is named by: its parents, branch,
+     *  time and message, then the name and blob of each of its files, in
+     *  order of name, each string preceded by its length. Unlike the
+     *  stored form it does not depend on how the files are split between
+     *  this commit and its parents, nor on the order of a HashMap or the
+     *  time zone, so every process names the same commit the same way. */
+    private byte[] canonicalForm() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeBytes("commit\n");
+            writeString(out, getParent());
+            writeString(out, getSecondParent());
+            writeString(out, _currBranch);
+            out.writeLong(_timestamp.getTime());
+            writeString(out, _msg);
+            TreeMap<String, String> files = new TreeMap<>(getBlobs());
+            out.writeInt(files.size());
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
 
+    /** Writes the UTF-8 bytes of S to OUT, after their number. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
 
+    /** Reads this commit from IN. A commit stored whole has its blobs in
+     *  the stream, and keeps them as all of its stored files; fields it
+     *  did not have take their defaults. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _msg = (String) fields.get("_msg", null);
+        _parent = idOf((String) fields.get("_parent", ""));
+        _secondParent = idOf((String) fields.get("_secondParent", ""));
+        _chain = fields.get("_chain", 0);
+        _pathFilter = (byte[]) fields.get("_pathFilter", null);
+        _timestamp = (Date) fields.get("_timestamp", null);
+        _currBranch = (String) fields.get("_currBranch", null);
+        if (fields.getObjectStreamClass().getField(WHOLE_BLOBS) != null) {
+            Map<String, String> blobs =
+                    (Map<String, String>) fields.get(WHOLE_BLOBS, null);
+            _stored = new TreeMap<>();
+            for (Map.Entry<String, String> e : blobs.entrySet()) {
+                _stored.put(e.getKey(), ObjectId.fromHex(e.getValue()));
+            }
+            _storesAll = true;
+        }
+    }
 
+    /** Writes the header of this commit to OUT. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_msg", _msg);
+        fields.put("_parent", getParent());
+        fields.put("_secondParent", getSecondParent());
+        fields.put("_chain", _chain);
+        fields.put("_pathFilter", _pathFilter);
+        fields.put("_timestamp", _timestamp);
+        fields.put("_currBranch", _currBranch);
+        out.writeFields();
+    }
+
+    /** Returns the stored form of this commit, holding either all of its
+     *  blobs or only how they differ from those of its first parent. */
+    byte[] encode() {
+        Map<String, ObjectId> stored;
+        if (_base != null) {
+            stored = getFiles().diff(_base);
+            _pathFilter = BloomFilter.of(stored.keySet());
+        } else {
+            if (_parent == null) {
+                _pathFilter = BloomFilter.of(getBlobs().keySet());
+            }
+            readFiles();
+            stored = _stored;
+        }
+        if (_chain == 0) {
+            stored = getFiles().toIdMap();
+        }
+        byte[] header = Utils.serialize(this);
+        byte[] files = encodeFiles(new TreeMap<>(stored), _chain == 0);
+        return ByteBuffer.allocate(4 + header.length + files.length)
+                .putInt(header.length).put(header).put(files).array();
+    }
+
+    /** Returns the stored form of the files FILES, mapping names to the
+     *  IDs of their blobs or to null for files removed, which are all the
+     *  files of the commit iff ALL. */
+    private static byte[] encodeFiles(TreeMap<String, ObjectId> files,
+                                      boolean all) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(FILES_MAGIC);
+            out.writeBoolean(all);
+            out.writeInt(files.size());
+            String last = "";
+            for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+                String name = e.getKey();
+                int shared = 0;
+                int most = Math.min(name.length(), last.length());
+                while (shared < most
+                        && name.charAt(shared) == last.charAt(shared)) {
+                    shared += 1;
+                }
+                out.writeShort(shared);
+                out.writeUTF(name.substring(shared));
+                byte[] blob = e.getValue() == null
+                        ? new byte[0] : e.getValue().toBytes();
+                out.writeByte(blob.length);
+                out.write(blob);
+                last = name;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the length of the header of a stored commit that begins
+     *  with START. */
+    static int headerLength(byte[] start) {
+        return ByteBuffer.wrap(start).getInt();
+    }
+
+    /** Reads the files stored with this commit, if they have not been
+     *  read, into _stored and _storesAll. */
+    private void readFiles() {
+        if (_stored == null && _store != null) {
+            decodeFiles(_store.readRaw(ObjectStore.COMMITS, _id,
+                    _filesOffset, Integer.MAX_VALUE));
+        }
+    }
+
+    /** Sets the files stored with this commit from FILES, the last part of
+     *  its stored form, taking their names from the PathTable of its
+     *  store. */
+    private void decodeFiles(byte[] files) {
+        PathTable paths = _store.paths();
+        _stored = new TreeMap<>();
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(files));
+        try {
+            if (in.readInt() != FILES_MAGIC) {
+                throw new IllegalArgumentException("not the files of a commit");
+            }
+            _storesAll = in.readBoolean();
+            int count = in.readInt();
+            String last = "";
+            for (int k = 0; k < count; k += 1) {
+                String name = last.substring(0, in.readUnsignedShort())
+                        + in.readUTF();
+                byte[] blob = new byte[in.readUnsignedByte()];
+                in.readFully(blob);
+                _stored.put(paths.canonical(name), blob.length == 0
+                        ? null : ObjectId.fromBytes(blob, 0, blob.length));
+                last = name;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
 }
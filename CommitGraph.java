@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** A cache of the shape of the history: for every commit, its timestamp,
+ *  its parents and its generation number, kept in the file commit-graph
+ *  in .gitlet so that walking or sorting commits needs no commit to be
+ *  read. The file starts with the magic number "GGRF", the number of
+ *  commits, the length of a SHA1 in bytes and a fanout table, as in a
+ *  pack index. Fixed-size entries sorted by SHA1 follow, each giving the
+ *  timestamp, the positions of the two parents among the entries, and the
+ *  generation: 1 for a commit without parents and otherwise one more than
+ *  the greatest generation of its parents. Last come the Bloom filters of
+ *  the files each commit changed: for each entry the offset at which its
+ *  filter ends, then the filters back to back. An empty filter stands for
+ *  a commit that changed too many files to have one.
+ *
+ *  The graph is written by repack and describes the commits present at
+ *  the time. Commits made later are simply not in it, so every user of
+ *  the graph falls back on reading the commits it does not cover.
+ *  @author Jackie Lian
+ */
+class CommitGraph {
+
+    /** Name of the file in .gitlet holding the graph. */
+    static final String GRAPH_FILE = "commit-graph";
+
+    /** Parent position meaning there is no such parent. */
+    static final int NONE = -1;
+
+    /** Parent position meaning the parent is not in the graph. */
+    static final int MISSING = -2;
+
+    /** Magic number at the start of the graph file. */
+    private static final int MAGIC = 0x47475246;
+
+    /** Length of the header: magic, count, ID length and fanout. */
+    private static final int HEADER_SIZE = 12 + 256 * 4;
+
+    /** The graph held in DATA. */
+    private CommitGraph(ByteBuffer data) {
+        _data = data;
+        _count = data.getInt(4);
+        _idLength = data.getInt(8);
+        _entrySize = _idLength + 8 + 4 + 4 + 4;
+    }
+
+    /** Returns the graph of the repository whose .gitlet folder is GITLET,
+     *  or null if it has none. */
+    static CommitGraph read(File gitlet) {
+        File file = Utils.join(gitlet, GRAPH_FILE);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Utils.readContents(file));
+            return data.getInt(0) == MAGIC ? new CommitGraph(data) : null;
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Writes the graph of all the commits in STORE, replacing any graph
+     *  written before. */
+    static void write(ObjectStore store) {
+        List<String> ids = store.ids(ObjectStore.COMMITS);
+        List<Commit> commits = ids.parallelStream().map(store::readCommit)
+                .collect(Collectors.toList());
+        Map<String, Integer> position = new HashMap<>();
+        for (int k = 0; k < ids.size(); k += 1) {
+            position.put(ids.get(k), k);
+        }
+        int[][] parents = new int[ids.size()][2];
+        for (int k = 0; k < ids.size(); k += 1) {
+            String[] named = { commits.get(k).getParent(),
+                               commits.get(k).getSecondParent() };
+            for (int p = 0; p < 2; p += 1) {
+                parents[k][p] = named[p].equals("") ? NONE
+                        : position.getOrDefault(named[p], MISSING);
+            }
+        }
+        int[] generation = generations(parents);
+        int idLength = ids.isEmpty() ? 0 : ids.get(0).length() / 2;
+        int entrySize = idLength + 8 + 4 + 4 + 4;
+        int filterBytes = 0;
+        for (Commit commit : commits) {
+            byte[] filter = commit.getPathFilter();
+            filterBytes += filter == null ? 0 : filter.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE
+                + ids.size() * (entrySize + 4) + filterBytes);
+        buf.putInt(MAGIC).putInt(ids.size()).putInt(idLength);
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            buf.putInt(total);
+        }
+        for (int k = 0; k < ids.size(); k += 1) {
+            buf.put(Utils.fromHex(ids.get(k)));
+            buf.putLong(commits.get(k).getTimestamp().getTime());
+            buf.putInt(parents[k][0]).putInt(parents[k][1]);
+            buf.putInt(generation[k]);
+        }
+        int end = 0;
+        for (Commit commit : commits) {
+            byte[] filter = commit.getPathFilter();
+            end += filter == null ? 0 : filter.length;
+            buf.putInt(end);
+        }
+        for (Commit commit : commits) {
+            byte[] filter = commit.getPathFilter();
+            if (filter != null) {
+                buf.put(filter);
+            }
+        }
+        File file = Utils.join(store.getGitlet(), GRAPH_FILE);
+        try {
+            File tmp = File.createTempFile("tmp-", "", store.getGitlet());
+            Utils.writeContents(tmp, buf.array());
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the generation of each commit, given the positions of the
+     *  PARENTS of each. */
+    private static int[] generations(int[][] parents) {
+        int[] result = new int[parents.length];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int start = 0; start < parents.length; start += 1) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int k = stack.peek();
+                if (result[k] != 0) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                int generation = 1;
+                for (int p : parents[k]) {
+                    if (p >= 0 && result[p] == 0) {
+                        stack.push(p);
+                        ready = false;
+                    } else if (p >= 0) {
+                        generation = Math.max(generation, result[p] + 1);
+                    }
+                }
+                if (ready) {
+                    result[k] = generation;
+                    stack.pop();
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of commits in this graph. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the position of the commit whose SHA1 is ID in this graph,
+     *  or -1 if it is not in it. */
+    int find(String id) {
+        if (id.length() != 2 * _idLength) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : _data.getInt(12 + (first - 1) * 4);
+        int hi = _data.getInt(12 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(mid, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the SHA1 of the Kth commit. */
+    String id(int k) {
+        byte[] id = new byte[_idLength];
+        for (int i = 0; i < _idLength; i += 1) {
+            id[i] = _data.get(HEADER_SIZE + k * _entrySize + i);
+        }
+        return Utils.toHex(id);
+    }
+
+    /** Returns the timestamp of the Kth commit, in milliseconds. */
+    long timestamp(int k) {
+        return _data.getLong(HEADER_SIZE + k * _entrySize + _idLength);
+    }
+
+    /** Returns the position of parent WHICH (0 or 1) of the Kth commit, or
+     *  NONE or MISSING. */
+    int parent(int k, int which) {
+        return _data.getInt(HEADER_SIZE + k * _entrySize + _idLength + 8
+                + 4 * which);
+    }
+
+    /** Returns the generation of the Kth commit. */
+    int generation(int k) {
+        return _data.getInt(HEADER_SIZE + k * _entrySize + _idLength + 16);
+    }
+
+    /** Returns the Bloom filter of the files the Kth commit changed, for
+     *  BloomFilter.mightContain. */
+    byte[] pathFilter(int k) {
+        int ends = HEADER_SIZE + _count * _entrySize;
+        int start = k == 0 ? 0 : _data.getInt(ends + 4 * (k - 1));
+        int end = _data.getInt(ends + 4 * k);
+        if (start == end) {
+            return null;
+        }
+        byte[] result = new byte[end - start];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _data.get(ends + 4 * _count + start + i);
+        }
+        return result;
+    }
+
+    /** Compares the SHA1 of the Kth entry with KEY, as unsigned bytes. */
+    private int compareId(int k, byte[] key) {
+        int pos = HEADER_SIZE + k * _entrySize;
+        for (int i = 0; i < _idLength; i += 1) {
+            int c = (_data.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** The contents of the graph file. */
+    private final ByteBuffer _data;
+
+    /** Number of commits. */
+    private final int _count;
+
+    /** Length of a SHA1 in bytes. */
+    private final int _idLength;
+
+    /** Length in bytes of each entry. */
+    private final int _entrySize;
+}
@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
@@ -192,6 +193,112 @@ public class Diff {
         return toIntArr(resultList);
     }
 
+    /** Return a longest common subsequence of the sequences being compared
+     *  in the same form as commonSubsequence, but found in space linear in
+     *  the lengths of the sequences rather than proportional to their
+     *  product, by Hirschberg's divide-and-conquer method. */
+    public int[] linearCommonSubsequence() {
+        checkData();
+        HashMap<String, Integer> codes = new HashMap<>();
+        int[] a = encode(_lines1, codes);
+        int[] b = encode(_lines2, codes);
+        ArrayList<Integer> matches = new ArrayList<>();
+        hirschberg(a, 0, a.length, b, 0, b.length, matches);
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k < matches.size(); k += 2) {
+            int i1 = matches.get(k), i2 = matches.get(k + 1);
+            int n = result.size();
+            if (n > 0 && result.get(n - 3) + result.get(n - 1) == i1
+                && result.get(n - 2) + result.get(n - 1) == i2) {
+                result.set(n - 1, result.get(n - 1) + 1);
+            } else {
+                result.add(i1);
+                result.add(i2);
+                result.add(1);
+            }
+        }
+        return toIntArr(result);
+    }
+
+    /** Return the items of LINES as numbers, equal items getting equal
+     *  numbers, recording the number of each item in CODES. */
+    private static int[] encode(List<String> lines,
+                                HashMap<String, Integer> codes) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer code = codes.putIfAbsent(lines.get(i), codes.size());
+            result[i] = code == null ? codes.size() - 1 : code;
+        }
+        return result;
+    }
+
+    /** Append to MATCHES, as pairs of positions in A and B in increasing
+     *  order, a longest common subsequence of A[LO1 .. HI1 - 1] and
+     *  B[LO2 .. HI2 - 1]. */
+    private static void hirschberg(int[] a, int lo1, int hi1,
+                                   int[] b, int lo2, int hi2,
+                                   ArrayList<Integer> matches) {
+        while (lo1 < hi1 && lo2 < hi2 && a[lo1] == b[lo2]) {
+            matches.add(lo1);
+            matches.add(lo2);
+            lo1 += 1;
+            lo2 += 1;
+        }
+        int suffix = 0;
+        while (lo1 < hi1 - suffix && lo2 < hi2 - suffix
+               && a[hi1 - suffix - 1] == b[hi2 - suffix - 1]) {
+            suffix += 1;
+        }
+        hi1 -= suffix;
+        hi2 -= suffix;
+        if (hi1 - lo1 == 1) {
+            for (int j = lo2; j < hi2; j += 1) {
+                if (a[lo1] == b[j]) {
+                    matches.add(lo1);
+                    matches.add(j);
+                    break;
+                }
+            }
+        } else if (lo1 < hi1 && lo2 < hi2) {
+            int mid = (lo1 + hi1) / 2;
+            int[] front = llsRow(a, lo1, mid, b, lo2, hi2, false);
+            int[] back = llsRow(a, mid, hi1, b, lo2, hi2, true);
+            int split = 0, best = -1;
+            for (int j = 0; j <= hi2 - lo2; j += 1) {
+                if (front[j] + back[hi2 - lo2 - j] > best) {
+                    best = front[j] + back[hi2 - lo2 - j];
+                    split = j;
+                }
+            }
+            hirschberg(a, lo1, mid, b, lo2, lo2 + split, matches);
+            hirschberg(a, mid, hi1, b, lo2 + split, hi2, matches);
+        }
+        for (int k = 0; k < suffix; k += 1) {
+            matches.add(hi1 + k);
+            matches.add(hi2 + k);
+        }
+    }
+
+    /** Return the array whose Jth item is the length of the longest common
+     *  subsequence of A[LO1 .. HI1 - 1] and the first J items of
+     *  B[LO2 .. HI2 - 1], or, if REVERSED, of the last J items of each. */
+    private static int[] llsRow(int[] a, int lo1, int hi1,
+                                int[] b, int lo2, int hi2, boolean reversed) {
+        int n = hi2 - lo2;
+        int[] prev = new int[n + 1], curr = new int[n + 1];
+        for (int i = 0; i < hi1 - lo1; i += 1) {
+            int x = reversed ? a[hi1 - 1 - i] : a[lo1 + i];
+            for (int j = 1; j <= n; j += 1) {
+                int y = reversed ? b[hi2 - j] : b[lo2 + j - 1];
+                curr[j] = x == y ? prev[j - 1] + 1 : max(prev[j], curr[j - 1]);
+            }
+            int[] t = prev;
+            prev = curr;
+            curr = t;
+        }
+        return prev;
+    }
+
     /** Return the edit that converts the first of the sequences being compared
      *  to the second. This is a sequence of 4n values d0, dL0, a0, aL0, ...,
      *  where the lines [di .. di + dL0 - 1] are the ranges of line
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/** A non-cryptographic 160-bit digest, for repositories that want their
+ *  objects named quickly rather than securely. The input is taken eight
+ *  bytes at a time, little-endian, into three 64-bit lanes, each with its
+ *  own multiplier, as in the xxHash family; the lanes are finally mixed
+ *  with the length and with each other. The first two lanes and the top
+ *  half of the third make the 20 bytes of the digest.
+ *  @author Jackie Lian
+ */
+class FastDigest extends MessageDigest {
+
+    /** Length of a digest in bytes. */
+    static final int LENGTH = 20;
+
+    /** Reads a little-endian long from a byte array. */
+    private static final VarHandle WORDS =
+            MethodHandles.byteArrayViewVarHandle(long[].class,
+                    ByteOrder.LITTLE_ENDIAN);
+
+    /** Multipliers of the three lanes. */
+    private static final long[] PRIMES = {
+        0x9e3779b185ebca87L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L
+    };
+
+    /** A new digest. */
+    FastDigest() {
+        super("gitlet-fast");
+        engineReset();
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        _word |= (input & 0xffL) << (8 * _filled);
+        _filled += 1;
+        _length += 1;
+        if (_filled == 8) {
+            mix(_word);
+            _word = 0;
+            _filled = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        int end = offset + len;
+        int i = offset;
+        while (i < end && _filled != 0) {
+            engineUpdate(input[i]);
+            i += 1;
+        }
+        long a = _lanes[0];
+        long b = _lanes[1];
+        long c = _lanes[2];
+        int start = i;
+        for (; i + 8 <= end; i += 8) {
+            long word = (long) WORDS.get(input, i);
+            a = Long.rotateLeft(a + word * PRIMES[0], 31) * PRIMES[1];
+            b = Long.rotateLeft(b + word * PRIMES[1], 31) * PRIMES[2];
+            c = Long.rotateLeft(c + word * PRIMES[2], 31) * PRIMES[0];
+        }
+        _lanes[0] = a;
+        _lanes[1] = b;
+        _lanes[2] = c;
+        _length += i - start;
+        for (; i < end; i += 1) {
+            engineUpdate(input[i]);
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        if (_filled != 0) {
+            mix(_word ^ (long) _filled << 59);
+        }
+        long[] lanes = new long[3];
+        for (int j = 0; j < 3; j += 1) {
+            lanes[j] = finish(_lanes[j] ^ _length * PRIMES[j]
+                    ^ _lanes[(j + 1) % 3]);
+        }
+        byte[] result = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i += 1) {
+            result[i] = (byte) (lanes[i / 8] >>> (56 - 8 * (i % 8)));
+        }
+        engineReset();
+        return result;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return LENGTH;
+    }
+
+    @Override
+    protected void engineReset() {
+        _lanes[0] = PRIMES[0];
+        _lanes[1] = PRIMES[1];
+        _lanes[2] = PRIMES[2];
+        _word = 0;
+        _filled = 0;
+        _length = 0;
+    }
+
+    /** Takes the eight bytes WORD into every lane. */
+    private void mix(long word) {
+        for (int j = 0; j < 3; j += 1) {
+            _lanes[j] = Long.rotateLeft(_lanes[j] + word * PRIMES[j], 31)
+                    * PRIMES[(j + 1) % 3];
+        }
+    }
+
+    /** Returns X with its bits mixed, so that every bit of the result
+     *  depends on every bit of X. */
+    private static long finish(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** The three lanes. */
+    private final long[] _lanes = new long[3];
+
+    /** Bytes taken but not yet mixed, little-endian. */
+    private long _word;
+
+    /** Number of bytes in _word. */
+    private int _filled;
+
+    /** Number of bytes taken since the last reset. */
+    private long _length;
+}
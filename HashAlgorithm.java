@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/** The hash function that names the objects of a repository. Each
+ *  repository picks one when it is made, and records its name in the file
+ *  hash in .gitlet; a repository without that file uses SHA-1, as every
+ *  repository did before the choice existed. The choice holds for all the
+ *  objects of the repository, so that each is named the same way whoever
+ *  wrote it, and commands refuse to move objects between repositories
+ *  that name them differently.
+ *
+ *  Digests are reused: each thread keeps one per algorithm, rather than
+ *  looking one up for every hash.
+ *  @author Jackie Lian
+ */
+class HashAlgorithm {
+
+    /** Name of the file in .gitlet recording the algorithm. */
+    static final String HASH_FILE = "hash";
+
+    /** SHA-1, with 20-byte IDs: the default. */
+    static final HashAlgorithm SHA1 =
+            new HashAlgorithm("sha1", "SHA-1", 20);
+
+    /** SHA-256, with 32-byte IDs. */
+    static final HashAlgorithm SHA256 =
+            new HashAlgorithm("sha256", "SHA-256", 32);
+
+    /** FastDigest: 20-byte IDs, made about two and a half times as fast
+     *  as SHA-1 on large contents but with no defence against deliberate
+     *  collisions. Meant for scratch repositories and benchmarks. */
+    static final HashAlgorithm FAST =
+            new HashAlgorithm("fast", null, FastDigest.LENGTH);
+
+    /** All the algorithms. */
+    static final List<HashAlgorithm> ALL = Arrays.asList(SHA1, SHA256, FAST);
+
+    /** The algorithm called NAME, implemented by the JCA digest JCANAME, or
+     *  by FastDigest if that is null, producing LENGTH-byte hashes. */
+    private HashAlgorithm(String name, String jcaName, int length) {
+        _name = name;
+        _jcaName = jcaName;
+        _length = length;
+    }
+
+    /** Returns the algorithm called NAME. */
+    static HashAlgorithm forName(String name) {
+        for (HashAlgorithm algorithm : ALL) {
+            if (algorithm._name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("unknown hash algorithm " + name);
+    }
+
+    /** Returns the algorithm of the repository whose .gitlet folder is
+     *  GITLET. */
+    static HashAlgorithm read(File gitlet) {
+        File file = Utils.join(gitlet, HASH_FILE);
+        if (!file.isFile()) {
+            return SHA1;
+        }
+        return forName(Utils.readContentsAsString(file).trim());
+    }
+
+    /** Records this as the algorithm of the repository whose .gitlet
+     *  folder is GITLET. */
+    void write(File gitlet) {
+        Utils.writeContents(Utils.join(gitlet, HASH_FILE), _name + "\n");
+    }
+
+    /** Returns the algorithm Utils.sha1 uses. */
+    static HashAlgorithm current() {
+        return _current;
+    }
+
+    /** Makes ALGORITHM the one Utils.sha1 uses. */
+    static void use(HashAlgorithm algorithm) {
+        _current = algorithm;
+    }
+
+    /** Returns the name of this algorithm. */
+    String getName() {
+        return _name;
+    }
+
+    /** Returns the length of the hashes of this algorithm, in bytes. */
+    int getLength() {
+        return _length;
+    }
+
+    /** Returns this thread's digest for this algorithm, ready for use. */
+    MessageDigest digest() {
+        MessageDigest result = _digests.get();
+        result.reset();
+        return result;
+    }
+
+    /** Returns a new digest for this algorithm. */
+    private MessageDigest newDigest() {
+        if (_jcaName == null) {
+            return new FastDigest();
+        }
+        try {
+            return MessageDigest.getInstance(_jcaName);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + _jcaName);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+
+    /** The algorithm in use. */
+    private static volatile HashAlgorithm _current = SHA1;
+
+    /** Name of this algorithm, as recorded. */
+    private final String _name;
+
+    /** Name of the JCA digest, or null. */
+    private final String _jcaName;
+
+    /** Length of a hash in bytes. */
+    private final int _length;
+
+    /** Each thread's digest. */
+    private final ThreadLocal<MessageDigest> _digests =
+            ThreadLocal.withInitial(this::newDigest);
+}
@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Walks and prints history for log and global-log. All output goes
+ *  through one buffered writer and one date format, and a commit is
+ *  printed under the SHA1 it was found by, so its files are never read.
+ *  The walks are lazy: each commit is read just before it is printed, so
+ *  printing the newest few commits of a long history reads only those.
+ *
+ *  A walk may be limited to the commits that changed one file. A commit
+ *  whose Bloom filter of changed files rules the file out is passed over
+ *  without reading its files; when the commit graph covers it, without
+ *  reading the commit at all.
+ *  @author Jackie Lian
+ */
+class LogEngine {
+
+    /** Format of the date of a commit. */
+    static final String DATE_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+
+    /** Number of characters of a SHA1 shown by --oneline. */
+    static final int ABBREV_LENGTH = 7;
+
+    /** An engine that reads commits from STORE, never goes past the
+     *  commits in SHALLOW, prints at most LIMIT commits, and prints each
+     *  on a single line iff ONELINE. If PATH is not null, walks print only
+     *  the commits that changed the file PATH. */
+    LogEngine(ObjectStore store, Set<String> shallow, int limit,
+              boolean oneline, String path) {
+        _store = store;
+        _shallow = shallow;
+        _limit = limit;
+        _oneline = oneline;
+        _path = path;
+        _graph = CommitGraph.read(store.getGitlet());
+        _out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        _dateFormat = new SimpleDateFormat(DATE_FORMAT);
+    }
+
+    /** Prints the commits from HEAD back to the initial commit, following
+     *  first parents only. */
+    void firstParent(String head) {
+        String id = head;
+        while (!id.equals("") && !done()) {
+            int k = _graph == null ? -1 : _graph.find(id);
+            Commit commit = null;
+            if (k < 0 || mayChange(_graph.pathFilter(k))) {
+                commit = _store.readCommit(id);
+                if (changes(commit)) {
+                    print(id, commit);
+                }
+            }
+            if (_shallow.contains(id)) {
+                break;
+            }
+            int parent = k < 0 ? CommitGraph.MISSING : _graph.parent(k, 0);
+            if (parent == CommitGraph.NONE) {
+                id = "";
+            } else if (parent >= 0) {
+                id = _graph.id(parent);
+            } else {
+                id = (commit == null ? _store.readCommit(id) : commit)
+                        .getParent();
+            }
+        }
+        _out.flush();
+    }
+
+    /** Prints every commit reachable from HEAD through both parents, each
+     *  before all of its parents. The next commit printed is always one
+     *  of greatest generation among those whose children have all been
+     *  printed: a commit's generation exceeds its parents', so nothing
+     *  still to come can be a child of it. Ties go to the newer commit. */
+    void topological(String head) {
+        Map<String, Commit> read = new HashMap<>();
+        PriorityQueue<String> ready = new PriorityQueue<>(
+                Comparator.comparing((String id) -> generation(id))
+                .thenComparing(id -> timestamp(id, read))
+                .reversed().thenComparing(Comparator.naturalOrder()));
+        ObjectIdSet queued = new ObjectIdSet();
+        ready.add(head);
+        queued.add(head);
+        while (!ready.isEmpty() && !done()) {
+            String id = ready.poll();
+            Commit commit = read.containsKey(id) ? read.remove(id)
+                    : _store.readCommit(id);
+            if (changes(commit)) {
+                print(id, commit);
+            }
+            if (_shallow.contains(id)) {
+                continue;
+            }
+            for (String parent : parents(commit)) {
+                if (queued.add(parent)
+                        && _store.contains(ObjectStore.COMMITS, parent)) {
+                    ready.add(parent);
+                }
+            }
+        }
+        _out.flush();
+    }
+
+    /** Prints the commit ID, which is COMMIT, and counts it against the
+     *  limit. */
+    void print(String id, Commit commit) {
+        if (_oneline) {
+            _out.print(id.substring(0, Math.min(ABBREV_LENGTH, id.length())));
+            _out.print(' ');
+            _out.println(commit.getMessage());
+        } else {
+            _out.println("===");
+            _out.println("commit " + id);
+            _out.println("Date: " + _dateFormat.format(commit.getTimestamp()));
+            _out.println(commit.getMessage());
+            _out.println();
+        }
+        _printed += 1;
+    }
+
+    /** Writes out everything printed so far. */
+    void flush() {
+        _out.flush();
+    }
+
+    /** Returns true iff the limit on the number of commits printed has
+     *  been reached. */
+    boolean done() {
+        return _printed >= _limit;
+    }
+
+    /** Returns false if the Bloom filter FILTER of the files a commit
+     *  changed shows that it did not change the file the walk is limited
+     *  to. */
+    private boolean mayChange(byte[] filter) {
+        return _path == null || BloomFilter.mightContain(filter, _path);
+    }
+
+    /** Returns true iff COMMIT changed the file the walk is limited to,
+     *  relative to its first parent, or the walk is not limited. */
+    private boolean changes(Commit commit) {
+        if (_path == null) {
+            return true;
+        } else if (!mayChange(commit.getPathFilter())) {
+            return false;
+        }
+        String before = null;
+        if (!commit.getParent().equals("")
+                && _store.contains(ObjectStore.COMMITS, commit.getParent())) {
+            before = _store.manifest(commit.getParent()).get(_path);
+        }
+        return !Objects.equals(before, commit.getBlob(_path));
+    }
+
+    /** Returns the parents of COMMIT, first parent first. */
+    private static String[] parents(Commit commit) {
+        if (commit.getSecondParent().equals("")) {
+            return commit.getParent().equals("") ? new String[0]
+                    : new String[] { commit.getParent() };
+        }
+        return new String[] { commit.getParent(), commit.getSecondParent() };
+    }
+
+    /** Returns the generation of the commit ID: 1 for a commit without
+     *  parents here, and otherwise one more than the greatest generation
+     *  of its parents. It comes from the commit graph where that covers
+     *  the commit, and is otherwise worked out from the parents and
+     *  remembered. */
+    private int generation(String id) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (_generations.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            int k = _graph == null ? -1 : _graph.find(top);
+            if (k >= 0) {
+                _generations.put(top, _graph.generation(k));
+                stack.pop();
+                continue;
+            }
+            int result = 1;
+            boolean ready = true;
+            if (!_shallow.contains(top)) {
+                for (String parent : parents(_store.readCommit(top))) {
+                    if (!_store.contains(ObjectStore.COMMITS, parent)) {
+                        continue;
+                    } else if (_generations.containsKey(parent)) {
+                        result = Math.max(result,
+                                _generations.get(parent) + 1);
+                    } else {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                _generations.put(top, result);
+                stack.pop();
+            }
+        }
+        return _generations.get(id);
+    }
+
+    /** Returns the timestamp of the commit ID, from the commit graph if it
+     *  covers the commit and otherwise by reading it into READ. */
+    private long timestamp(String id, Map<String, Commit> read) {
+        int k = _graph == null ? -1 : _graph.find(id);
+        if (k >= 0) {
+            return _graph.timestamp(k);
+        }
+        return read.computeIfAbsent(id, _store::readCommit)
+                .getTimestamp().getTime();
+    }
+
+    /** The store commits are read from. */
+    private final ObjectStore _store;
+
+    /** The shallow commits, whose parents are not present. */
+    private final Set<String> _shallow;
+
+    /** Largest number of commits to print. */
+    private final int _limit;
+
+    /** True iff each commit is printed on one line. */
+    private final boolean _oneline;
+
+    /** The only file whose changes are shown, or null. */
+    private final String _path;
+
+    /** The commit graph, or null if there is none. */
+    private final CommitGraph _graph;
+
+    /** Where the output goes. */
+    private final PrintWriter _out;
+
+    /** The format of commit dates. */
+    private final SimpleDateFormat _dateFormat;
+
+    /** Generations worked out so far, by commit SHA1. */
+    private final Map<String, Integer> _generations = new HashMap<>();
+
+    /** Number of commits printed. */
+    private int _printed;
+}
@@ -3,12 +3,29 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Jackie Lian
  */
 public class Main implements Serializable {
 
+    /** Number of days an unreachable object is kept by gc by default. */
+    private static final long DEFAULT_GRACE_DAYS = 14;
+
+    /** Number of days a reflog entry is kept by gc by default. */
+    private static final long DEFAULT_REFLOG_DAYS = 90;
+
+    /** Number of milliseconds in a day. */
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /** The command line of the running command, as logged in reflogs. */
+    private static String _command = "";
+
     /** Stores the repo object.*/
     private static Repo _repo;
 
@@ -25,21 +42,26 @@ public class Main implements Serializable {
         if (args.length == 0) {
             errorAndExit("Please enter a command.");
         }
+        _command = String.join(" ", args);
         if (args[0].equals("init")) {
-            init();
+            init(args);
             return;
         }
         File repoFile = Utils.join(_gitlet, "repo");
         if (!repoFile.exists()) {
             errorAndExit("Not in an initialized Gitlet directory.");
         }
-        _repo = Utils.readObject(repoFile, Repo.class);
+        HashAlgorithm.use(HashAlgorithm.read(_gitlet));
+        if (args[0].equals("watch")) {
+            new Watcher(_cwd, _gitlet).run();
+            return;
+        }
+        _repo = readRepo(repoFile);
+        _repo.upgrade();
         if (args[0].equals("add")) {
             _repo.add(args[1]);
-            Utils.writeObject(repoFile, _repo);
         } else if (args[0].equals("commit")) {
             _repo.commit(args[1]);
-            Utils.writeObject(repoFile, _repo);
         } else if (args[0].equals("checkout")) {
             if (args.length == 3) {
                 if (!args[1].equals("--")) {
@@ -56,18 +78,22 @@ public class Main implements Serializable {
             } else {
                 errorAndExit("Incorrect operands.");
             }
-            Utils.writeObject(repoFile, _repo);
         } else if (args[0].equals("log")) {
-            _repo.log();
-            Utils.writeObject(repoFile, _repo);
+            log(args);
         } else if (args[0].equals("global-log")) {
-            _repo.globalLog();
-            Utils.writeObject(repoFile, _repo);
+            if (args.length == 3 && args[1].equals("--limit")) {
+                _repo.globalLog(positiveInt(args[2]));
+            } else {
+                _repo.globalLog();
+            }
         } else if (args[0].equals("rm")) {
             _repo.rm(args[1]);
-            Utils.writeObject(repoFile, _repo);
         } else if (args[0].equals("find")) {
-            _repo.find(args[1]);
+            if (args.length == 3 && args[1].equals("--grep")) {
+                _repo.findGrep(args[2]);
+            } else {
+                _repo.find(args[1]);
+            }
         } else if (args[0].equals("status")) {
             _repo.status();
         } else if (args[0].equals("branch")) {
@@ -79,12 +105,10 @@ public class Main implements Serializable {
         } else {
             main2(args);
         }
-        Utils.writeObject(repoFile, _repo);
+        _repo.save(repoFile);
     }
 
     public static void main2(String... args) throws IOException {
-        File repoFile = Utils.join(_gitlet, "repo");
-        _repo = Utils.readObject(repoFile, Repo.class);
         if (args[0].equals("merge")) {
             _repo.merge(args[1]);
         } else if (args[0].equals("add-remote")) {
@@ -94,15 +118,180 @@ public class Main implements Serializable {
         } else if (args[0].equals("push")) {
             _repo.push(args[1], args[2]);
         } else if (args[0].equals("fetch")) {
-            _repo.fetch(args[1], args[2]);
+            fetch(args);
         } else if (args[0].equals("pull")) {
             _repo.pull(args[1], args[2]);
+        } else if (args[0].equals("gc")) {
+            gc(args);
+        } else if (args[0].equals("repack")) {
+            _repo.repack();
+        } else if (args[0].equals("blame")) {
+            _repo.blame(args[1]);
+        } else if (args[0].equals("sparse-checkout")) {
+            sparseCheckout(args);
+        } else if (args[0].equals("reflog")) {
+            if (args.length > 2) {
+                errorAndExit("Incorrect operands.");
+            }
+            _repo.reflog(args.length == 2 ? args[1] : null);
         } else {
             errorAndExit("No command with that name exists.");
         }
-        Utils.writeObject(repoFile, _repo);
     }
-    public static void init() throws IOException {
+    /** Runs fetch with the operands and options in ARGS, which are
+     *  REMOTE BRANCH, followed by any of --depth N, --since YYYY-MM-DD,
+     *  --deepen N and --filter blob:none. */
+    private static void fetch(String... args) throws IOException {
+        if (args.length < 3 || args.length % 2 == 0) {
+            errorAndExit("Incorrect operands.");
+        }
+        int depth = Integer.MAX_VALUE;
+        Date since = null;
+        int deepen = 0;
+        boolean blobless = false;
+        for (int i = 3; i < args.length; i += 2) {
+            try {
+                if (args[i].equals("--depth")) {
+                    depth = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--deepen")) {
+                    deepen = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--since")) {
+                    since = new SimpleDateFormat("yyyy-MM-dd")
+                            .parse(args[i + 1]);
+                } else if (args[i].equals("--filter")
+                        && args[i + 1].equals("blob:none")) {
+                    blobless = true;
+                } else {
+                    errorAndExit("Incorrect operands.");
+                }
+            } catch (NumberFormatException | ParseException excp) {
+                errorAndExit("Incorrect operands.");
+            }
+        }
+        if (depth < 1 || deepen < 0) {
+            errorAndExit("Incorrect operands.");
+        }
+        _repo.fetch(args[1], args[2], depth, since, deepen, blobless);
+    }
+
+    /** Runs log with the options in ARGS, which are any of -n N,
+     *  --oneline, --first-parent and --topo-order, optionally followed by
+     *  -- FILE. */
+    private static void log(String... args) {
+        int limit = Integer.MAX_VALUE;
+        boolean oneline = false;
+        boolean topological = false;
+        String path = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--") && i + 2 == args.length) {
+                i += 1;
+                path = args[i];
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                i += 1;
+                limit = positiveInt(args[i]);
+            } else if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (args[i].equals("--first-parent")) {
+                topological = false;
+            } else if (args[i].equals("--topo-order")) {
+                topological = true;
+            } else {
+                errorAndExit("Incorrect operands.");
+            }
+        }
+        _repo.log(limit, oneline, topological, path);
+    }
+
+    /** Runs gc with the options in ARGS, which are any of --prune now, or
+     *  --prune N to keep unreachable objects younger than N days; and
+     *  --expire-reflog now, or --expire-reflog N to keep reflog entries
+     *  younger than N days. */
+    private static void gc(String... args) {
+        long grace = DEFAULT_GRACE_DAYS * MILLIS_PER_DAY;
+        long expiry = DEFAULT_REFLOG_DAYS * MILLIS_PER_DAY;
+        if (args.length % 2 == 0) {
+            errorAndExit("Incorrect operands.");
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            if (args[i].equals("--prune")) {
+                grace = days(args[i + 1]);
+            } else if (args[i].equals("--expire-reflog")) {
+                expiry = days(args[i + 1]);
+            } else {
+                errorAndExit("Incorrect operands.");
+            }
+        }
+        _repo.gc(grace, expiry);
+    }
+
+    /** Returns the milliseconds in ARG, which is now or a number of days,
+     *  exiting with an error if it is anything else. */
+    private static long days(String arg) {
+        if (arg.equals("now")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(arg) * MILLIS_PER_DAY;
+        } catch (NumberFormatException excp) {
+            errorAndExit("Incorrect operands.");
+            return 0;
+        }
+    }
+
+    /** Runs sparse-checkout with the operands in ARGS: list, to print the
+     *  patterns of the files checked out; set PATTERN..., to check out only
+     *  the files matching a PATTERN; or disable, to check out every
+     *  file. */
+    private static void sparseCheckout(String... args) {
+        if (args.length == 2 && args[1].equals("list")) {
+            _repo.listSparse();
+        } else if (args.length > 2 && args[1].equals("set")) {
+            _repo.sparseCheckout(new ArrayList<>(
+                    Arrays.asList(args).subList(2, args.length)));
+        } else if (args.length == 2 && args[1].equals("disable")) {
+            _repo.sparseCheckout(null);
+        } else {
+            errorAndExit("Incorrect operands.");
+        }
+    }
+
+    /** Returns the positive number written in ARG, exiting with an error
+     *  if it is anything else. */
+    private static int positiveInt(String arg) {
+        try {
+            int result = Integer.parseInt(arg);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
+        }
+        errorAndExit("Incorrect operands.");
+        return 0;
+    }
+
+    /** Runs init with the options in ARGS, which are any of --hash NAME,
+     *  naming the algorithm that names the objects of the new repository:
+     *  sha1 (the default), sha256 or fast; and --durable, making every
+     *  command force what it writes to disk before updating the refs. */
+    public static void init(String... args) throws IOException {
+        HashAlgorithm algorithm = HashAlgorithm.SHA1;
+        boolean durable = false;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--hash") && i + 1 < args.length) {
+                i += 1;
+                try {
+                    algorithm = HashAlgorithm.forName(args[i]);
+                } catch (IllegalArgumentException excp) {
+                    errorAndExit("Unknown hash algorithm; use one of "
+                            + HashAlgorithm.ALL + ".");
+                }
+            } else if (args[i].equals("--durable")) {
+                durable = true;
+            } else {
+                errorAndExit("Incorrect operands.");
+            }
+        }
         File cwd = new File(System.getProperty("user.dir"));
         File git = Utils.join(cwd, ".gitlet/");
         if (git.exists()) {
@@ -114,18 +303,40 @@ public class Main implements Serializable {
             commits.mkdir();
             File blobs = Utils.join(git, "blobs/");
             blobs.mkdir();
+            algorithm.write(git);
+            HashAlgorithm.use(algorithm);
+            if (durable) {
+                Utils.join(git, WriteBatch.DURABLE_FILE).createNewFile();
+            }
             File repo = Utils.join(git, "repo");
             repo.createNewFile();
             _repo = new Repo();
-            Utils.writeObject(repo, _repo);
+            _repo.save(repo);
         }
 
     }
 
+    /** Returns the repo stored in REPOFILE, exiting with an error if it
+     *  was written by a version of Gitlet whose repos cannot be read. */
+    private static Repo readRepo(File repoFile) {
+        try {
+            return Utils.readObject(repoFile, Repo.class);
+        } catch (IllegalArgumentException excp) {
+            errorAndExit("This repository was made by an incompatible "
+                    + "version of Gitlet.");
+            return null;
+        }
+    }
+
     public static File getGitlet() {
         return _gitlet;
     }
 
+    /** Returns the command line of the running command. */
+    static String getCommand() {
+        return _command;
+    }
+
     public static void errorAndExit(String errorMessage) {
         Utils.message(errorMessage);
         System.exit(0);
@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The files of a commit, as two arrays: the path IDs of their names in
+ *  a PathTable, in increasing order, and the ObjectIds of their blobs. A
+ *  Manifest takes an int and an ObjectId per file, where a HashMap takes a
+ *  node of five fields and a slot besides a String of the SHA1, and its
+ *  names are shared with every other Manifest of the same table. Two
+ *  Manifests of one table are compared, and a Manifest and a set of
+ *  changes combined, by a single merge of their arrays, comparing blobs
+ *  without looking at their digits. Those who want the SHA1s as Strings
+ *  get them from get, blobs and toMap. Manifests are never changed.
+ *  @author Jackie Lian
+ */
+final class Manifest {
+
+    /** The Manifest over TABLE with PATHS, in increasing order, and
+     *  BLOBS. */
+    private Manifest(PathTable table, int[] paths, ObjectId[] blobs) {
+        _table = table;
+        _paths = paths;
+        _blobs = blobs;
+    }
+
+    /** Returns the Manifest of FILES, which maps file names to blob SHA1s,
+     *  naming them in TABLE. */
+    static Manifest of(Map<String, String> files, PathTable table) {
+        Map<String, ObjectId> ids = new HashMap<>(2 * files.size());
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            ids.put(e.getKey(), e.getValue() == null
+                    ? null : ObjectId.fromHex(e.getValue()));
+        }
+        return ofIds(ids, table);
+    }
+
+    /** Returns the Manifest of FILES, which maps file names to the IDs of
+     *  their blobs, naming them in TABLE. */
+    static Manifest ofIds(Map<String, ObjectId> files, PathTable table) {
+        int[] paths = new int[files.size()];
+        ObjectId[] blobs = new ObjectId[files.size()];
+        int k = 0;
+        for (Map.Entry<String, ObjectId> e : files.entrySet()) {
+            paths[k] = table.intern(e.getKey());
+            blobs[k] = e.getValue();
+            k += 1;
+        }
+        sort(paths, blobs);
+        return new Manifest(table, paths, blobs);
+    }
+
+    /** Returns the table naming the files of this. */
+    PathTable getTable() {
+        return _table;
+    }
+
+    /** Returns the number of files. */
+    int size() {
+        return _paths.length;
+    }
+
+    /** Returns the SHA1 of the blob of the file NAME, or null if there is
+     *  no such file. */
+    String get(String name) {
+        int id = _table.lookup(name);
+        if (id < 0) {
+            return null;
+        }
+        int k = Arrays.binarySearch(_paths, id);
+        return k < 0 ? null : _blobs[k].toString();
+    }
+
+    /** Returns the SHA1s of the blobs of the files, in order of path ID,
+     *  which may not be changed. */
+    List<String> blobs() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int k) {
+                return _blobs[k].toString();
+            }
+
+            @Override
+            public int size() {
+                return _blobs.length;
+            }
+        };
+    }
+
+    /** Returns a new map from the names of the files to their blobs. */
+    HashMap<String, String> toMap() {
+        HashMap<String, String> result = new HashMap<>(2 * _paths.length);
+        for (int k = 0; k < _paths.length; k += 1) {
+            result.put(_table.name(_paths[k]), _blobs[k].toString());
+        }
+        return result;
+    }
+
+    /** Returns a new map from the names of the files to the IDs of their
+     *  blobs, in order of name. */
+    TreeMap<String, ObjectId> toIdMap() {
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        for (int k = 0; k < _paths.length; k += 1) {
+            result.put(_table.name(_paths[k]), _blobs[k]);
+        }
+        return result;
+    }
+
+    /** Returns this with the changes CHANGES, which maps the names of
+     *  files added or changed to their blobs and the names of files
+     *  removed to null. */
+    Manifest apply(Map<String, ObjectId> changes) {
+        Manifest delta = ofIds(changes, _table);
+        int[] paths = new int[_paths.length + delta._paths.length];
+        ObjectId[] blobs = new ObjectId[paths.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < _paths.length || j < delta._paths.length) {
+            int c = i == _paths.length ? 1
+                    : j == delta._paths.length ? -1
+                    : Integer.compare(_paths[i], delta._paths[j]);
+            if (c < 0) {
+                paths[k] = _paths[i];
+                blobs[k] = _blobs[i];
+                k += 1;
+                i += 1;
+                continue;
+            }
+            if (delta._blobs[j] != null) {
+                paths[k] = delta._paths[j];
+                blobs[k] = delta._blobs[j];
+                k += 1;
+            }
+            if (c == 0) {
+                i += 1;
+            }
+            j += 1;
+        }
+        return new Manifest(_table, Arrays.copyOf(paths, k),
+                Arrays.copyOf(blobs, k));
+    }
+
+    /** Returns the changes that make this from BASE, a Manifest of the
+     *  same table, in the form apply takes, in order of name. */
+    TreeMap<String, ObjectId> diff(Manifest base) {
+        if (base._table != _table) {
+            throw new IllegalArgumentException("manifests of other tables");
+        }
+        TreeMap<String, ObjectId> result = new TreeMap<>();
+        int i = 0;
+        int j = 0;
+        while (i < _paths.length || j < base._paths.length) {
+            int c = i == _paths.length ? 1
+                    : j == base._paths.length ? -1
+                    : Integer.compare(_paths[i], base._paths[j]);
+            if (c < 0) {
+                result.put(_table.name(_paths[i]), _blobs[i]);
+                i += 1;
+            } else if (c > 0) {
+                result.put(_table.name(base._paths[j]), null);
+                j += 1;
+            } else {
+                if (!_blobs[i].equals(base._blobs[j])) {
+                    result.put(_table.name(_paths[i]), _blobs[i]);
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Sorts PATHS into increasing order, moving BLOBS with them. */
+    private static void sort(int[] paths, ObjectId[] blobs) {
+        long[] keyed = new long[paths.length];
+        for (int k = 0; k < paths.length; k += 1) {
+            keyed[k] = (long) paths[k] << 32 | k;
+        }
+        Arrays.sort(keyed);
+        ObjectId[] old = blobs.clone();
+        for (int k = 0; k < keyed.length; k += 1) {
+            paths[k] = (int) (keyed[k] >>> 32);
+            blobs[k] = old[(int) keyed[k]];
+        }
+    }
+
+    /** The table naming the files. */
+    private final PathTable _table;
+
+    /** The path IDs of the files, in increasing order. */
+    private final int[] _paths;
+
+    /** The IDs of the blobs of the files, matching _paths. */
+    private final ObjectId[] _blobs;
+}
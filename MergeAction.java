@@ -0,0 +1,102 @@
+package gitlet;
+
+/** The resolution of a single file during a merge. Each action is computed
+ *  independently of every other file, from the SHA1s of its versions
+ *  alone, so that the actions for a merge can be found in parallel. Only
+ *  once the merge is known to go ahead are the files the actions write
+ *  produced, and the actions then applied one at a time, in order.
+ *  @author Jackie Lian
+ */
+class MergeAction {
+
+    /** The kinds of change a merge can make to a file. */
+    enum Kind {
+        /** Leave the file as it is in the current branch. */
+        KEEP,
+        /** Take the version of the file in the given branch. */
+        TAKE_OTHER,
+        /** Remove the file and stage it for removal. */
+        REMOVE,
+        /** Write conflict markers into the file. */
+        CONFLICT
+    }
+
+    /** An action of kind KIND on the file FILENAME, involving the blob
+     *  BLOBID: the one taken, or the one removed. */
+    MergeAction(String filename, Kind kind, String blobID) {
+        this(filename, kind, blobID, null, null);
+    }
+
+    /** An action of kind KIND on the file FILENAME, involving the blob
+     *  BLOBID and the versions HEADID and OTHERID in conflict. */
+    private MergeAction(String filename, Kind kind, String blobID,
+                        String headID, String otherID) {
+        _name = filename;
+        _kind = kind;
+        _blobID = blobID;
+        _headID = headID;
+        _otherID = otherID;
+    }
+
+    /** Returns an action that leaves FILENAME untouched. */
+    static MergeAction keep(String filename) {
+        return new MergeAction(filename, Kind.KEEP, null);
+    }
+
+    /** Returns a conflict on FILENAME between the blobs HEADID and OTHERID,
+     *  either of which is null if the file is absent on that side. */
+    static MergeAction conflict(String filename, String headID,
+                                String otherID) {
+        return new MergeAction(filename, Kind.CONFLICT, null, headID,
+                otherID);
+    }
+
+    /** Returns the name of the file this action applies to. */
+    String getName() {
+        return _name;
+    }
+
+    /** Returns the kind of this action. */
+    Kind getKind() {
+        return _kind;
+    }
+
+    /** Returns the SHA1 of the blob taken or removed by this action, or
+     *  null if there is none, as for a conflict, whose blob is only made
+     *  when it is applied. */
+    String getBlobID() {
+        return _blobID;
+    }
+
+    /** Returns the SHA1 of the head's version in a conflict, or null if
+     *  the head lacks the file. */
+    String getHeadID() {
+        return _headID;
+    }
+
+    /** Returns the SHA1 of the given branch's version in a conflict, or
+     *  null if that branch lacks the file. */
+    String getOtherID() {
+        return _otherID;
+    }
+
+    /** Returns true iff this action leaves a merge conflict behind. */
+    boolean isConflict() {
+        return _kind == Kind.CONFLICT;
+    }
+
+    /** Name of the file. */
+    private final String _name;
+
+    /** What happens to the file. */
+    private final Kind _kind;
+
+    /** SHA1 of the blob taken or removed. */
+    private final String _blobID;
+
+    /** SHA1 of the head's version in a conflict. */
+    private final String _headID;
+
+    /** SHA1 of the given branch's version in a conflict. */
+    private final String _otherID;
+}
@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/** An index from commit messages to the commits that have them, kept in
+ *  the folder index in .gitlet. The index is split into 256 bucket files
+ *  of each of two sorts, and each bucket file holds one line per entry.
+ *  A line of a messages bucket holds the SHA1 of a whole message and the
+ *  SHA1 of a commit with that message, so finding the commits with a given
+ *  message reads a single bucket. A line of a grams bucket holds a
+ *  trigram (three consecutive characters) of a message, in hexadecimal,
+ *  and the SHA1 of a commit whose message contains it. Searching for a
+ *  regular expression reads the buckets of the trigrams that any match
+ *  must contain, and checks only the commits found in all of them.
+ *
+ *  Entries are only ever appended. Commits removed by gc are skipped when
+ *  they turn up in a search, and an index that does not exist yet is built
+ *  from all the commits in the store the first time it is used. In a
+ *  durable repository the buckets appended to are forced with the store's
+ *  WriteBatch, before the refs naming the commits they index; a line cut
+ *  short by a crash before that, or otherwise not an entry, is skipped.
+ *  @author Jackie Lian
+ */
+class MessageIndex {
+
+    /** Name of the folder in .gitlet holding the index. */
+    static final String INDEX_DIR = "index";
+
+    /** Name of the folder of buckets keyed by whole message. */
+    private static final String MESSAGES = "messages";
+
+    /** Name of the folder of buckets keyed by trigram. */
+    private static final String GRAMS = "grams";
+
+    /** Number of characters in an indexed substring of a message. */
+    private static final int GRAM = 3;
+
+    /** The letters that, after a backslash, stand for a single character
+     *  of some class or for a boundary. */
+    private static final String CLASS_ESCAPES = "dDsSwWbBhHvVRXAzZG";
+
+    /** The index of the commits in STORE. */
+    MessageIndex(ObjectStore store) {
+        _store = store;
+        _dir = Utils.join(store.getGitlet(), INDEX_DIR);
+    }
+
+    /** Adds the commits whose SHA1s are IDS, which are in the store. */
+    void addAll(Collection<String> ids) {
+        if (!_dir.isDirectory()) {
+            build();
+            return;
+        }
+        Map<String, StringBuilder> lines = new TreeMap<>();
+        for (String id : ids) {
+            entries(id, _store.readCommit(id).getMessage(), lines);
+        }
+        append(_dir, lines, _store.batch());
+    }
+
+    /** Calls OUT on the SHA1 of each commit whose message is MESSAGE, in
+     *  order. */
+    void find(String message, Consumer<String> out) {
+        ensureBuilt();
+        String key = Utils.sha1(message);
+        Set<String> result = new TreeSet<>();
+        for (String[] entry : read(new File(_dir, bucket(MESSAGES, key)))) {
+            if (entry[0].equals(key)) {
+                result.add(entry[1]);
+            }
+        }
+        for (String id : result) {
+            if (_store.contains(ObjectStore.COMMITS, id)
+                    && _store.readCommit(id).getMessage().equals(message)) {
+                out.accept(id);
+            }
+        }
+    }
+
+    /** Calls OUT on the SHA1 of each commit whose message contains a match
+     *  for the regular expression REGEX, as each is found. */
+    void grep(String regex, Consumer<String> out) {
+        Pattern pattern = Pattern.compile(regex);
+        ensureBuilt();
+        Set<String> candidates = null;
+        for (String gram : grams(literals(regex))) {
+            String key = Utils.toHex(gram.getBytes(StandardCharsets.UTF_8));
+            Set<String> having = new TreeSet<>();
+            for (String[] entry : read(new File(_dir, bucket(GRAMS, gram)))) {
+                if (entry[0].equals(key)) {
+                    having.add(entry[1]);
+                }
+            }
+            if (candidates == null) {
+                candidates = having;
+            } else {
+                candidates.retainAll(having);
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+        }
+        if (candidates == null) {
+            candidates = new TreeSet<>(_store.ids(ObjectStore.COMMITS));
+        }
+        for (String id : candidates) {
+            if (_store.contains(ObjectStore.COMMITS, id)
+                    && pattern.matcher(_store.readCommit(id).getMessage())
+                    .find()) {
+                out.accept(id);
+            }
+        }
+    }
+
+    /** Returns the substrings that every match of the regular expression
+     *  REGEX must contain. The answer errs towards too few: a pattern with
+     *  groups, alternatives or unusual escapes yields none at all. */
+    static List<String> literals(String regex) {
+        List<String> result = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        for (int k = 0; k < regex.length(); k += 1) {
+            char c = regex.charAt(k);
+            if (c == '(' || c == '|') {
+                return Collections.emptyList();
+            } else if (c == '\\' && k + 1 < regex.length()) {
+                k += 1;
+                char escaped = regex.charAt(k);
+                if (CLASS_ESCAPES.indexOf(escaped) >= 0) {
+                    endRun(run, result);
+                } else if (Character.isLetterOrDigit(escaped)) {
+                    return Collections.emptyList();
+                } else {
+                    run.append(escaped);
+                }
+            } else if (c == '?' || c == '*' || c == '{') {
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                endRun(run, result);
+                if (c == '{') {
+                    k = Math.max(k, regex.indexOf('}', k));
+                }
+            } else if (c == '[') {
+                endRun(run, result);
+                k = classEnd(regex, k);
+            } else if (".^$+)".indexOf(c) >= 0) {
+                endRun(run, result);
+            } else {
+                run.append(c);
+            }
+        }
+        endRun(run, result);
+        return result;
+    }
+
+    /** Returns the position of the ] closing the character class that
+     *  starts at position START of REGEX. */
+    private static int classEnd(String regex, int start) {
+        int k = start + 1;
+        if (k < regex.length() && regex.charAt(k) == '^') {
+            k += 1;
+        }
+        if (k < regex.length() && regex.charAt(k) == ']') {
+            k += 1;
+        }
+        int depth = 1;
+        for (; k < regex.length(); k += 1) {
+            char c = regex.charAt(k);
+            if (c == '\\') {
+                k += 1;
+            } else if (c == '[') {
+                depth += 1;
+            } else if (c == ']') {
+                depth -= 1;
+                if (depth == 0) {
+                    return k;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    /** Adds RUN to RESULT if it is long enough to hold a trigram, and
+     *  empties it. */
+    private static void endRun(StringBuilder run, List<String> result) {
+        if (run.length() >= GRAM) {
+            result.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /** Returns the distinct trigrams of the strings in TEXTS. */
+    private static Set<String> grams(Collection<String> texts) {
+        Set<String> result = new TreeSet<>();
+        for (String text : texts) {
+            for (int k = 0; k + GRAM <= text.length(); k += 1) {
+                result.add(text.substring(k, k + GRAM));
+            }
+        }
+        return result;
+    }
+
+    /** Adds the lines indexing the commit ID, whose message is MESSAGE, to
+     *  LINES, which maps each bucket to the lines to append to it. */
+    private static void entries(String id, String message,
+                                Map<String, StringBuilder> lines) {
+        String key = Utils.sha1(message);
+        lines.computeIfAbsent(bucket(MESSAGES, key), f -> new StringBuilder())
+                .append(key).append(' ').append(id).append('\n');
+        for (String gram : grams(Collections.singleton(message))) {
+            lines.computeIfAbsent(bucket(GRAMS, gram),
+                    f -> new StringBuilder())
+                    .append(Utils.toHex(gram.getBytes(StandardCharsets.UTF_8)))
+                    .append(' ').append(id).append('\n');
+        }
+    }
+
+    /** Appends LINES, which maps each bucket to the lines to append to
+     *  it, to the index in the folder DIR, recording the buckets in
+     *  BATCH. */
+    private static void append(File dir, Map<String, StringBuilder> lines,
+                               WriteBatch batch) {
+        try {
+            for (Map.Entry<String, StringBuilder> e : lines.entrySet()) {
+                File f = new File(dir, e.getKey());
+                f.getParentFile().mkdirs();
+                String text = e.getValue().toString();
+                if (!endsLine(f)) {
+                    text = "\n" + text;
+                }
+                Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                batch.add(f);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff BUCKET is empty, missing or ends with a whole
+     *  line, so that a line appended to it starts a line of its own. */
+    private static boolean endsLine(File bucket) throws IOException {
+        if (!bucket.isFile() || bucket.length() == 0) {
+            return true;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(bucket, "r")) {
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    /** Returns the entries of BUCKET, each split into its key and its
+     *  commit. A line that is not an entry, such as the last one of a
+     *  bucket cut short by a crash, is skipped. */
+    private static List<String[]> read(File bucket) {
+        List<String[]> result = new ArrayList<>();
+        if (!bucket.isFile()) {
+            return result;
+        }
+        for (String line : Utils.readContentsAsString(bucket).split("\n")) {
+            String[] entry = line.split(" ");
+            if (entry.length == 2 && ObjectId.isId(entry[1])) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the name, within the index, of the bucket of sort SORT
+     *  holding the entries for KEY. A message SHA1 is placed by its first
+     *  two digits, a trigram by its hash code. */
+    private static String bucket(String sort, String key) {
+        String name = sort.equals(MESSAGES) ? key.substring(0, 2)
+                : String.format("%02x", key.hashCode() & 0xff);
+        return sort + "/" + name;
+    }
+
+    /** Builds the index if it does not exist yet. */
+    private void ensureBuilt() {
+        if (!_dir.isDirectory()) {
+            build();
+        }
+    }
+
+    /** Builds the index of all the commits in the store in a temporary
+     *  folder, then moves it into place, so that no one sees half of it. */
+    private void build() {
+        Map<String, StringBuilder> lines = new TreeMap<>();
+        for (String id : _store.ids(ObjectStore.COMMITS)) {
+            entries(id, _store.readCommit(id).getMessage(), lines);
+        }
+        File tmp = null;
+        try {
+            tmp = Files.createTempDirectory(_dir.getParentFile().toPath(),
+                    "tmp-" + INDEX_DIR).toFile();
+            WriteBatch batch = _store.batch();
+            append(tmp, lines, batch);
+            for (String sort : new String[] {MESSAGES, GRAMS}) {
+                if (new File(tmp, sort).isDirectory()) {
+                    batch.add(new File(tmp, sort));
+                }
+            }
+            batch.sync();
+            Files.move(tmp.toPath(), _dir.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            batch.add(_dir);
+        } catch (IOException excp) {
+            /* Built by another command meanwhile. */
+            if (tmp != null) {
+                Utils.deleteTree(tmp);
+            }
+        }
+    }
+
+    /** The store whose commits are indexed. */
+    private final ObjectStore _store;
+
+    /** The folder holding the index. */
+    private final File _dir;
+}
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/** Copies objects between two repositories on this computer without
+ *  deserializing them. Objects are immutable, so when both repositories
+ *  live on the same filesystem a loose object is shared through a hard link
+ *  instead of being copied. Everything else is streamed into a single pack
+ *  in the destination with FileChannel.transferFrom.
+ *
+ *  Each object costs a few filesystem calls against the source, which may
+ *  sit on a slow network mount, so objects are located, linked and packed
+ *  concurrently, with at most WINDOW of them in flight at once.
+ *  @author Jackie Lian
+ */
+class ObjectCopier {
+
+    /** Largest number of objects being copied at any one time. */
+    static final int WINDOW = 64;
+
+    /** Smallest number of objects for which progress is printed. */
+    static final int PROGRESS_MIN = 1000;
+
+    /** A copier from the store FROM to the store TO. */
+    ObjectCopier(ObjectStore from, ObjectStore to) {
+        _from = from;
+        _to = to;
+        _sameFileStore = sameFileStore(from.getGitlet(), to.getGitlet());
+    }
+
+    /** Copies OBJECTS, which maps each kind to the SHA1s of the objects of
+     *  that kind, in order. */
+    void copy(Map<String, List<String>> objects) {
+        long start = System.nanoTime();
+        List<String[]> keys = new ArrayList<>();
+        for (Map.Entry<String, List<String>> kind : objects.entrySet()) {
+            for (String id : kind.getValue()) {
+                keys.add(new String[] { kind.getKey(), id });
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int k = 0; k < keys.size(); k += 1) {
+            order.add(k);
+        }
+        ObjectStore.Location[] locs = new ObjectStore.Location[keys.size()];
+        boolean[] linked = new boolean[keys.size()];
+        ExecutorService pool = newExecutor();
+        try {
+            runAll(pool, order, "Counting objects", k -> locs[k] =
+                    _from.locate(keys.get(k)[0], keys.get(k)[1]));
+            if (_sameFileStore) {
+                runAll(pool, order, "Linking objects",
+                        k -> linked[k] = link(locs[k]));
+            }
+            List<ObjectStore.Location> rest = new ArrayList<>();
+            for (int k = 0; k < locs.length; k += 1) {
+                _objects += 1;
+                _bytes += locs[k]._length;
+                if (linked[k]) {
+                    _linked += 1;
+                } else {
+                    rest.add(locs[k]);
+                }
+            }
+            if (!rest.isEmpty()) {
+                _to.addPack(Pack.write(_to.packDir(), rest, pool));
+                _packed += rest.size();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        _nanos += System.nanoTime() - start;
+    }
+
+    /** Returns a one-line account of what has been copied. */
+    String report() {
+        double seconds = Math.max(_nanos, 1) / 1e9;
+        return String.format("Transferred %d objects (%d bytes) in %d ms, "
+                + "%.0f objects/s, %.1f KB/s: %d linked, %d packed.",
+                _objects, _bytes, _nanos / 1000000, _objects / seconds,
+                _bytes / seconds / 1024, _linked, _packed);
+    }
+
+    /** Returns the number of objects copied so far. */
+    long getObjects() {
+        return _objects;
+    }
+
+    /** Returns the number of bytes copied so far. */
+    long getBytes() {
+        return _bytes;
+    }
+
+    /** Applies TASK to each of ITEMS on POOL, with at most WINDOW of them
+     *  running at once, and waits for all of them. If there are many ITEMS,
+     *  prints progress under the heading LABEL while waiting. */
+    static <T> void runAll(ExecutorService pool, List<T> items, String label,
+                           Consumer<T> task) {
+        Semaphore window = new Semaphore(WINDOW);
+        List<Future<?>> pending = new ArrayList<>();
+        try {
+            for (T item : items) {
+                window.acquire();
+                pending.add(pool.submit(() -> {
+                    try {
+                        task.accept(item);
+                    } finally {
+                        window.release();
+                    }
+                }));
+            }
+            int shown = 0;
+            for (int k = 0; k < pending.size(); k += 1) {
+                pending.get(k).get();
+                int percent = 100 * (k + 1) / items.size();
+                if (items.size() >= PROGRESS_MIN && percent >= shown + 10) {
+                    shown = percent - percent % 10;
+                    Utils.message("%s: %d%% (%d/%d)", label, shown, k + 1,
+                            items.size());
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns an executor that runs each task on a virtual thread when this
+     *  JVM has them, and otherwise on a pool of WINDOW threads. */
+    static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newFixedThreadPool(WINDOW, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Tries to hard-link the loose object at LOC into the destination.
+     *  Returns true iff it did. */
+    private boolean link(ObjectStore.Location loc) {
+        if (loc._offset != 0 || loc._length != loc._file.length()) {
+            return false;
+        }
+        try {
+            File dest = _to.looseFile(loc._kind, loc._id);
+            Files.createLink(dest.toPath(), loc._file.toPath());
+            _to.batch().add(dest);
+            return true;
+        } catch (IOException | UnsupportedOperationException
+                 | SecurityException excp) {
+            return false;
+        }
+    }
+
+    /** Returns true iff the folders A and B are on the same filesystem. */
+    private static boolean sameFileStore(File a, File b) {
+        try {
+            FileStore storeA = Files.getFileStore(a.toPath());
+            FileStore storeB = Files.getFileStore(b.toPath());
+            return storeA.equals(storeB);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** The store objects are copied from. */
+    private final ObjectStore _from;
+
+    /** The store objects are copied to. */
+    private final ObjectStore _to;
+
+    /** True iff both stores are on the same filesystem. */
+    private final boolean _sameFileStore;
+
+    /** Number of objects copied. */
+    private long _objects;
+
+    /** Number of bytes copied. */
+    private long _bytes;
+
+    /** Number of objects shared through hard links. */
+    private long _linked;
+
+    /** Number of objects written to a pack. */
+    private long _packed;
+
+    /** Time spent copying, in nanoseconds. */
+    private long _nanos;
+}
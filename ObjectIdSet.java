@@ -0,0 +1,124 @@
+package gitlet;
+
+/** A set of ObjectIds kept in a single long array by open addressing,
+ *  without an object per member. Each slot holds as many longs as an ID
+ *  of the repository's hash algorithm needs: three for a 20-byte SHA1, four
+ *  for a 32-byte SHA-256. A SHA1 member takes three longs in a table at
+ *  most half full, about 50 bytes of heap against about 120 for a String
+ *  in a HashSet, and the collector has one array to trace rather than two
+ *  objects and a node per member. An all-zero ID cannot be a member, which
+ *  for a hash is no loss.
+ *  @author Jackie Lian
+ */
+class ObjectIdSet {
+
+    /** An empty set of IDs of the repository's hash algorithm. */
+    ObjectIdSet() {
+        _length = HashAlgorithm.current().getLength();
+        _slot = ObjectId.words(_length);
+        _table = new long[_slot * 16];
+    }
+
+    /** Returns the number of members. */
+    int size() {
+        return _size;
+    }
+
+    /** Adds ID, which must be as long as the IDs of this set. Returns true
+     *  iff it was not a member before. */
+    boolean add(ObjectId id) {
+        if (id.length() != _length) {
+            throw new IllegalArgumentException("an ID of " + id.length()
+                    + " bytes in a set of " + _length);
+        }
+        if (2 * (_size + 1) > _table.length / _slot) {
+            grow();
+        }
+        int slot = find(_table, id);
+        if (!isEmpty(_table, slot)) {
+            return false;
+        }
+        for (int w = 0; w < _slot; w += 1) {
+            _table[slot + w] = id.word(w);
+        }
+        _size += 1;
+        return true;
+    }
+
+    /** Adds the ID whose hexadecimal numeral is HEX. Returns true iff it
+     *  was not a member before. */
+    boolean add(String hex) {
+        return add(ObjectId.fromHex(hex));
+    }
+
+    /** Returns true iff ID is a member. */
+    boolean contains(ObjectId id) {
+        return id.length() == _length && !isEmpty(_table, find(_table, id));
+    }
+
+    /** Returns true iff the ID whose numeral is HEX is a member. Anything
+     *  that is not the numeral of an ID is not a member. */
+    boolean contains(String hex) {
+        return hex.length() == 2 * _length && ObjectId.isId(hex)
+                && contains(ObjectId.fromHex(hex));
+    }
+
+    /** Returns the position in TABLE of the slot holding ID, or of the
+     *  empty slot where it belongs. */
+    private int find(long[] table, ObjectId id) {
+        int slots = table.length / _slot;
+        int k = id.hashCode() & (slots - 1);
+        while (true) {
+            int slot = _slot * k;
+            if (isEmpty(table, slot)) {
+                return slot;
+            }
+            boolean same = true;
+            for (int w = 0; w < _slot && same; w += 1) {
+                same = table[slot + w] == id.word(w);
+            }
+            if (same) {
+                return slot;
+            }
+            k = (k + 1) & (slots - 1);
+        }
+    }
+
+    /** Returns true iff the slot at SLOT in TABLE holds no member. */
+    private boolean isEmpty(long[] table, int slot) {
+        for (int w = 0; w < _slot; w += 1) {
+            if (table[slot + w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Doubles the number of slots. */
+    private void grow() {
+        long[] old = _table;
+        _table = new long[2 * old.length];
+        for (int slot = 0; slot < old.length; slot += _slot) {
+            if (!isEmpty(old, slot)) {
+                int k = (int) old[slot + 1] & (_table.length / _slot - 1);
+                while (!isEmpty(_table, _slot * k)) {
+                    k = (k + 1) & (_table.length / _slot - 1);
+                }
+                System.arraycopy(old, slot, _table, _slot * k, _slot);
+            }
+        }
+    }
+
+    /** Number of bytes in a member. */
+    private final int _length;
+
+    /** Number of longs per slot. */
+    private final int _slot;
+
+    /** The slots, _slot longs each: the bytes of a member, big-endian and
+     *  padded with zeros, or all zeros. */
+    private long[] _table;
+
+    /** Number of members. */
+    private int _size;
+}
@@ -0,0 +1,543 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** The commits and blobs of one Gitlet repository. An object is either
+ *  loose, in a file of its own named by its SHA1 in the folder for its
+ *  kind, or packed into one of the packs in the packs folder.
+ *
+ *  A blob of at least Chunker.THRESHOLD bytes is kept as a list of chunks
+ *  instead: its content is cut by Chunker, each chunk is kept once as an
+ *  object of its own named by the SHA1 of its bytes, and the blob holds
+ *  CHUNK_LIST_MAGIC, the name of the file, the number of chunks and their
+ *  SHA1s. Versions of a large file then share all but the chunks near
+ *  their differences.
+ *  @author Jackie Lian
+ */
+class ObjectStore {
+
+    /** Kind (and folder) of commit objects. */
+    static final String COMMITS = "commits";
+
+    /** Kind (and folder) of blob objects. */
+    static final String BLOBS = "blobs";
+
+    /** Kind (and folder) of the chunks of large blobs. */
+    static final String CHUNKS = "chunks";
+
+    /** All kinds of objects, in the order their codes are numbered. */
+    static final String[] KINDS = { COMMITS, BLOBS, CHUNKS };
+
+    /** Number at the start of a blob kept as a list of chunks. A serialized
+     *  object starts with 0xaced instead. */
+    static final int CHUNK_LIST_MAGIC = 0x43484b53;
+
+    /** Number of bytes read at first when reading the header of a commit,
+     *  which is almost always enough for all of it. */
+    static final int HEADER_GUESS = 1024;
+
+    /** Number of commits whose blobs manifest() keeps: enough for the
+     *  whole run of deltas back to a checkpoint along two lines of first
+     *  parents at once, as a merge walks, so that walking back along
+     *  either rebuilds each commit from its parent rather than from the
+     *  checkpoint again. */
+    static final int MANIFEST_CACHE_SIZE = 2 * Commit.CHECKPOINT_INTERVAL;
+
+    /** The store kept in the .gitlet folder GITLET. */
+    ObjectStore(File gitlet) {
+        _gitlet = gitlet;
+        _batch = new WriteBatch(WriteBatch.isDurable(gitlet));
+    }
+
+    /** Returns the batch of files written to this store that are yet to
+     *  be forced to disk. */
+    WriteBatch batch() {
+        return _batch;
+    }
+
+    /** Returns the table naming the files of the commits of this
+     *  store. */
+    PathTable paths() {
+        return _paths;
+    }
+
+    /** Returns the .gitlet folder of this store. */
+    File getGitlet() {
+        return _gitlet;
+    }
+
+    /** Returns the code of KIND used in packs. */
+    static byte kindCode(String kind) {
+        for (int k = 0; k < KINDS.length; k += 1) {
+            if (KINDS[k].equals(kind)) {
+                return (byte) (k + 1);
+            }
+        }
+        throw new IllegalArgumentException("unknown object kind " + kind);
+    }
+
+    /** Returns the file that holds the loose object of kind KIND whose SHA1
+     *  is ID, whether or not it exists. */
+    File looseFile(String kind, String id) {
+        return Utils.join(_gitlet, kind, id);
+    }
+
+    /** Returns true iff this store has the object of kind KIND whose SHA1
+     *  is ID. */
+    boolean contains(String kind, String id) {
+        if (looseFile(kind, id).isFile() || findPack(kind, id) != null) {
+            return true;
+        }
+        _packs = null;
+        return findPack(kind, id) != null;
+    }
+
+    /** Returns the serialized form of the object of kind KIND whose SHA1 is
+     *  ID. A repack running at the same time may move a loose object into
+     *  a new pack, or replace the packs that were listed, so a miss is
+     *  retried once after listing the packs again. */
+    byte[] readRaw(String kind, String id) {
+        return readRaw(kind, id, 0, Integer.MAX_VALUE);
+    }
+
+    /** Returns at most LENGTH bytes of the serialized form of the object of
+     *  kind KIND whose SHA1 is ID, starting at START. */
+    byte[] readRaw(String kind, String id, long start, int length) {
+        File loose = looseFile(kind, id);
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            if (loose.isFile()) {
+                try (FileChannel in = FileChannel.open(loose.toPath(),
+                        StandardOpenOption.READ)) {
+                    return Utils.readRange(in, start,
+                            (int) Math.min(length, in.size() - start));
+                } catch (IOException | IllegalArgumentException excp) {
+                    /* Moved into a pack since it was seen. */
+                }
+            }
+            Pack pack = findPack(kind, id);
+            if (pack != null) {
+                try {
+                    return pack.read(kind, id, start, length);
+                } catch (IllegalArgumentException excp) {
+                    /* Replaced by a newer pack since it was listed. */
+                }
+            }
+            _packs = null;
+        }
+        throw new IllegalArgumentException(loose.getPath()
+                + " (No such file or directory)");
+    }
+
+    /** Returns where the serialized form of the object of kind KIND whose
+     *  SHA1 is ID is kept. */
+    Location locate(String kind, String id) {
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            return new Location(kind, id, loose, 0, loose.length());
+        }
+        Pack pack = findPack(kind, id);
+        if (pack == null) {
+            _packs = null;
+            pack = findPack(kind, id);
+        }
+        if (pack == null) {
+            throw new IllegalArgumentException(loose.getPath()
+                    + " (No such file or directory)");
+        }
+        return pack.locate(kind, id);
+    }
+
+    /** Returns the SHA1s of all objects of kind KIND as a set, found with
+     *  one listing of the folder for KIND rather than a lookup per object. */
+    Set<String> idSet(String kind) {
+        return new HashSet<>(ids(kind));
+    }
+
+    /** Returns the commit whose SHA1 is ID. */
+    Commit readCommit(String id) {
+        byte[] start = readRaw(COMMITS, id, 0, HEADER_GUESS);
+        if (isWholeCommit(start)) {
+            Commit commit = Utils.deserialize(readRaw(COMMITS, id),
+                    Commit.class);
+            commit.setSource(this, id, -1);
+            return commit;
+        }
+        int length = Commit.headerLength(start);
+        byte[] header = length + 4 <= start.length
+                ? Arrays.copyOfRange(start, 4, length + 4)
+                : readRaw(COMMITS, id, 4, length);
+        Commit commit = Utils.deserialize(header, Commit.class);
+        commit.setSource(this, id, length + 4);
+        return commit;
+    }
+
+    /** Returns true iff START, the start of a stored commit, begins a
+     *  commit stored whole, as a Java object, by the first version of
+     *  Gitlet. The length of a header never begins this way. */
+    private static boolean isWholeCommit(byte[] start) {
+        return start.length >= 2 && (start[0] & 0xff) == 0xac
+                && (start[1] & 0xff) == 0xed;
+    }
+
+    /** Rewrites each commit stored whole in the form readCommit reads
+     *  in parts, under the same SHA1, as a checkpoint. That SHA1 is not
+     *  the hash of the commit's canonical form, but its children and the
+     *  branches name it by it. Returns the number rewritten. */
+    int upgradeCommits() {
+        int count = 0;
+        for (String id : ids(COMMITS)) {
+            if (isWholeCommit(readRaw(COMMITS, id, 0, 2))) {
+                replace(COMMITS, id, readCommit(id).checkpoint().encode());
+                count += 1;
+            }
+        }
+        _batch.sync();
+        return count;
+    }
+
+    /** Returns the files of the commit whose SHA1 is ID. The most recently
+     *  used are kept, so rebuilding the files of a commit from those of its
+     *  parent is cheap when the parent was just seen. */
+    Manifest manifest(String id) {
+        Manifest result = _manifests.get(id);
+        if (result == null) {
+            result = readCommit(id).getFiles();
+            _manifests.put(id, result);
+        }
+        return result;
+    }
+
+    /** Returns the blob whose SHA1 is ID. */
+    Blob readBlob(String id) {
+        byte[] raw = readRaw(BLOBS, id);
+        if (!isChunkList(raw)) {
+            return Utils.deserialize(raw, Blob.class);
+        }
+        try {
+            DataInputStream in = chunkList(raw);
+            String name = in.readUTF();
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (String chunk : chunkIds(in)) {
+                content.write(readRaw(CHUNKS, chunk));
+            }
+            return new Blob(name, content.toString(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the content of the blob whose SHA1 is ID to FILE. The chunks
+     *  of a chunked blob are written one at a time, so its whole content is
+     *  never held at once. */
+    void writeBlobTo(String id, File file) {
+        byte[] raw = readRaw(BLOBS, id);
+        if (!isChunkList(raw)) {
+            Utils.writeContents(file,
+                    Utils.deserialize(raw, Blob.class).getContent());
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()))) {
+            DataInputStream in = chunkList(raw);
+            in.readUTF();
+            for (String chunk : chunkIds(in)) {
+                out.write(readRaw(CHUNKS, chunk));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA1s of the chunks of the blob whose SHA1 is ID, in
+     *  order, or an empty list if the blob is kept whole. */
+    List<String> chunks(String id) {
+        if (!isChunkList(readRaw(BLOBS, id, 0, 4))) {
+            return Collections.emptyList();
+        }
+        try {
+            DataInputStream in = chunkList(readRaw(BLOBS, id));
+            in.readUTF();
+            return chunkIds(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes BLOB, whose SHA1 is ID, unless it is already present. A
+     *  large blob is written as a list of chunks, and only the chunks this
+     *  store lacks are written. */
+    void writeBlob(String id, Blob blob) {
+        byte[] content = blob.getContent().getBytes(StandardCharsets.UTF_8);
+        if (content.length < Chunker.THRESHOLD) {
+            write(BLOBS, id, blob);
+            return;
+        }
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(list)) {
+            List<Integer> ends = Chunker.cut(content);
+            out.writeInt(CHUNK_LIST_MAGIC);
+            out.writeUTF(blob.getName());
+            out.writeInt(ends.size());
+            int start = 0;
+            for (int end : ends) {
+                byte[] chunk = Arrays.copyOfRange(content, start, end);
+                String chunkID = Utils.sha1(chunk);
+                if (!looseFile(CHUNKS, chunkID).isFile()
+                        && findPack(CHUNKS, chunkID) == null) {
+                    write(CHUNKS, chunkID, chunk);
+                }
+                out.write(Utils.fromHex(chunkID));
+                start = end;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        write(BLOBS, id, list.toByteArray());
+    }
+
+    /** Returns true iff RAW, the start of a stored blob, begins a list of
+     *  chunks. */
+    private static boolean isChunkList(byte[] raw) {
+        return raw.length >= 4 && ((raw[0] & 0xff) << 24
+                | (raw[1] & 0xff) << 16 | (raw[2] & 0xff) << 8
+                | (raw[3] & 0xff)) == CHUNK_LIST_MAGIC;
+    }
+
+    /** Returns a stream reading the list of chunks RAW, just past its
+     *  magic number. */
+    private static DataInputStream chunkList(byte[] raw) {
+        return new DataInputStream(new ByteArrayInputStream(raw, 4,
+                raw.length - 4));
+    }
+
+    /** Returns the SHA1s of the chunks read from IN, which is just past the
+     *  name of the file. */
+    private static List<String> chunkIds(DataInputStream in)
+            throws IOException {
+        int count = in.readInt();
+        List<String> result = new ArrayList<>(count);
+        byte[] id = new byte[HashAlgorithm.current().getLength()];
+        for (int k = 0; k < count; k += 1) {
+            in.readFully(id);
+            result.add(Utils.toHex(id));
+        }
+        return result;
+    }
+
+    /** Writes OBJ as the loose object of kind KIND whose SHA1 is ID. An
+     *  object already present is never rewritten: objects are immutable, and
+     *  a loose object may be a hard link shared with another repository.
+     *  Its modification time is refreshed instead, so that gc treats it as
+     *  newly written. */
+    void write(String kind, String id, Serializable obj) {
+        write(kind, id, Utils.serialize(obj));
+    }
+
+    /** Writes COMMIT as the loose commit whose SHA1 is ID. */
+    void writeCommit(String id, Commit commit) {
+        write(COMMITS, id, commit.encode());
+    }
+
+    /** Writes DATA as the loose object of kind KIND whose SHA1 is ID,
+     *  unless it is already present. In a durable store the object is
+     *  written as by writeRaw, so that a crash cannot leave part of it. */
+    private void write(String kind, String id, byte[] data) {
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            loose.setLastModified(System.currentTimeMillis());
+        } else if (_batch.isDurable()) {
+            writeRaw(kind, id, data);
+        } else {
+            loose.getParentFile().mkdirs();
+            Utils.writeContents(loose, data);
+        }
+    }
+
+    /** Writes DATA, the serialized form of an object of kind KIND whose
+     *  SHA1 is ID, as a loose object. The file appears all at once, so
+     *  readers never see part of it. */
+    void writeRaw(String kind, String id, byte[] data) {
+        File loose = looseFile(kind, id);
+        if (loose.isFile()) {
+            return;
+        }
+        try {
+            makeFolder(loose.getParentFile());
+            File tmp = File.createTempFile("tmp-", "", loose.getParentFile());
+            Utils.writeContents(tmp, data);
+            Files.move(tmp.toPath(), loose.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _batch.add(loose);
+    }
+
+    /** Makes DATA the loose object of kind KIND whose SHA1 is ID, whether
+     *  or not it is already present, replacing it all at once. */
+    private void replace(String kind, String id, byte[] data) {
+        File loose = looseFile(kind, id);
+        try {
+            makeFolder(loose.getParentFile());
+            File tmp = File.createTempFile("tmp-", "", loose.getParentFile());
+            Utils.writeContents(tmp, data);
+            Files.move(tmp.toPath(), loose.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _batch.add(loose);
+    }
+
+    /** Makes the folder DIR and any missing folders above it, adding each
+     *  one made to the batch. */
+    private void makeFolder(File dir) {
+        if (!dir.isDirectory()) {
+            makeFolder(dir.getParentFile());
+            dir.mkdir();
+            _batch.add(dir);
+        }
+    }
+
+    /** Returns the SHA1s of all objects of kind KIND, in order. */
+    List<String> ids(String kind) {
+        TreeSet<String> result = new TreeSet<>();
+        List<String> loose = Utils.plainFilenamesIn(Utils.join(_gitlet,
+                kind));
+        if (loose != null) {
+            for (String name : loose) {
+                if (!name.startsWith("tmp-")) {
+                    result.add(name);
+                }
+            }
+        }
+        for (Pack pack : packs()) {
+            result.addAll(pack.ids(kind));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the packs of this store. The list is never changed once
+     *  returned: it is built whole and then published, and a miss or a new
+     *  pack replaces it, so threads may share it while others look again. */
+    List<Pack> packs() {
+        List<Pack> result = _packs;
+        if (result == null) {
+            result = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(packDir());
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".pack")
+                            && Pack.indexFile(Utils.join(packDir(), name))
+                            .isFile()) {
+                        result.add(new Pack(Utils.join(packDir(), name)));
+                    }
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            _packs = result;
+        }
+        return result;
+    }
+
+    /** Returns the folder holding the packs of this store. */
+    File packDir() {
+        return Utils.join(_gitlet, Pack.PACK_DIR);
+    }
+
+    /** Indexes the pack just written to the temporary file TMP in this
+     *  store's pack folder and makes its objects visible. */
+    void addPack(File tmp) {
+        Pack pack = Pack.index(tmp);
+        _batch.add(pack.getFile());
+        _batch.add(Pack.indexFile(pack.getFile()));
+        synchronized (this) {
+            List<Pack> packs = new ArrayList<>(packs());
+            packs.add(pack);
+            _packs = Collections.unmodifiableList(packs);
+        }
+    }
+
+    /** Returns the pack holding the object of kind KIND whose SHA1 is ID,
+     *  or null if it is not packed. */
+    private Pack findPack(String kind, String id) {
+        for (Pack pack : packs()) {
+            if (pack.contains(kind, id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Where an object is kept: LENGTH bytes of FILE starting at OFFSET. */
+    static class Location {
+        /** The object of kind KIND whose SHA1 is ID, kept in the LENGTH
+         *  bytes of FILE starting at OFFSET. */
+        Location(String kind, String id, File file, long offset,
+                 long length) {
+            _kind = kind;
+            _id = id;
+            _file = file;
+            _offset = offset;
+            _length = length;
+        }
+
+        /** Kind of the object. */
+        final String _kind;
+        /** SHA1 of the object. */
+        final String _id;
+        /** The file holding the object. */
+        final File _file;
+        /** Position of the object in the file. */
+        final long _offset;
+        /** Length of the object. */
+        final long _length;
+    }
+
+    /** The .gitlet folder. */
+    private final File _gitlet;
+
+    /** The names of the files of the commits read. */
+    private final PathTable _paths = new PathTable();
+
+    /** The files written and not yet forced to disk. */
+    private final WriteBatch _batch;
+
+    /** The packs, once they have been listed, or null. Volatile, since
+     *  any thread may list them again. */
+    private volatile List<Pack> _packs;
+
+    /** The files of the MANIFEST_CACHE_SIZE most recently used commits,
+     *  by commit SHA1. */
+    private final Map<String, Manifest> _manifests =
+            Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Manifest> eldest) {
+                    return size() > MANIFEST_CACHE_SIZE;
+                }
+            });
+}
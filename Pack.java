@@ -0,0 +1,391 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/** A pack file: many objects stored back to back in a single file, together
+ *  with an index that maps each object's SHA1 to its place in the pack.
+ *
+ *  A pack named pack-ID.pack starts with the magic number "GPAK" and the
+ *  number of objects it holds. Each object follows as its kind, its SHA1,
+ *  its length and the bytes of its serialized form. The index, pack-ID.idx,
+ *  starts with "GIDX", the object count and a fanout table whose Kth entry
+ *  counts the objects whose SHA1 begins with a byte at most K. After it come
+ *  fixed-size entries sorted by SHA1, so an object is found with a binary
+ *  search over the slice of entries the fanout table gives for its first
+ *  byte.
+ *  @author Jackie Lian
+ */
+class Pack {
+
+    /** Name of the folder in .gitlet holding the packs. */
+    static final String PACK_DIR = "packs";
+
+    /** Magic number at the start of every pack. */
+    private static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number at the start of every pack index. */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /** Length of an index header: magic, count, ID length and fanout. */
+    private static final int HEADER_SIZE = 12 + 256 * 4;
+
+    /** The pack whose file is PACKFILE, read through its index. */
+    Pack(File packFile) {
+        _packFile = packFile;
+        _index = ByteBuffer.wrap(Utils.readContents(indexFile(packFile)));
+        if (_index.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("bad pack index");
+        }
+        _count = _index.getInt(4);
+        _idLength = _index.getInt(8);
+        _entrySize = _idLength + 1 + 8 + 4;
+    }
+
+    /** Returns the pack file. */
+    File getFile() {
+        return _packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns true iff this pack holds the object of kind KIND whose SHA1
+     *  is ID. */
+    boolean contains(String kind, String id) {
+        return find(kind, id) >= 0;
+    }
+
+    /** Returns the serialized form of the object of kind KIND whose SHA1 is
+     *  ID, or null if it is not in this pack. */
+    byte[] read(String kind, String id) {
+        return read(kind, id, 0, Integer.MAX_VALUE);
+    }
+
+    /** Returns at most LENGTH bytes of the serialized form of the object of
+     *  kind KIND whose SHA1 is ID, starting at START, or null if it is not
+     *  in this pack. */
+    byte[] read(String kind, String id, long start, int length) {
+        int k = find(kind, id);
+        if (k < 0) {
+            return null;
+        }
+        try {
+            return Utils.readRange(channel(), offset(k) + start,
+                    (int) Math.min(length, length(k) - start));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the open channel on the pack file. It stays open, so reading
+     *  objects that sit next to each other, as the commits of a log do
+     *  after a repack, streams through the file. */
+    private synchronized FileChannel channel() throws IOException {
+        if (_channel == null) {
+            _channel = FileChannel.open(_packFile.toPath(),
+                    StandardOpenOption.READ);
+        }
+        return _channel;
+    }
+
+    /** Returns the SHA1s of all objects of kind KIND in this pack. */
+    List<String> ids(String kind) {
+        byte code = ObjectStore.kindCode(kind);
+        List<String> result = new ArrayList<>();
+        byte[] id = new byte[_idLength];
+        for (int k = 0; k < _count; k += 1) {
+            int pos = HEADER_SIZE + k * _entrySize;
+            if (_index.get(pos + _idLength) == code) {
+                _index.position(pos);
+                _index.get(id);
+                result.add(Utils.toHex(id));
+            }
+        }
+        return result;
+    }
+
+    /** Returns where the object of kind KIND whose SHA1 is ID lies in this
+     *  pack, or null if it is not in this pack. */
+    ObjectStore.Location locate(String kind, String id) {
+        int k = find(kind, id);
+        if (k < 0) {
+            return null;
+        }
+        return new ObjectStore.Location(kind, id, _packFile, offset(k),
+                length(k));
+    }
+
+    /** Returns the position in the pack of the data of the Kth entry. */
+    long offset(int k) {
+        return _index.getLong(HEADER_SIZE + k * _entrySize + _idLength + 1);
+    }
+
+    /** Returns the length of the data of the Kth entry. */
+    int length(int k) {
+        return _index.getInt(HEADER_SIZE + k * _entrySize + _idLength + 9);
+    }
+
+    /** Returns the index entry of the object of kind KIND whose SHA1 is ID,
+     *  or -1 if there is none. */
+    int find(String kind, String id) {
+        if (id.length() != 2 * _idLength) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : _index.getInt(12 + (first - 1) * 4);
+        int hi = _index.getInt(12 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(mid, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                int pos = HEADER_SIZE + mid * _entrySize + _idLength;
+                return _index.get(pos) == ObjectStore.kindCode(kind)
+                        ? mid : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the SHA1 of the Kth entry with KEY, as unsigned bytes. */
+    private int compareId(int k, byte[] key) {
+        int pos = HEADER_SIZE + k * _entrySize;
+        for (int i = 0; i < _idLength; i += 1) {
+            int c = (_index.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the index file that goes with PACKFILE. */
+    static File indexFile(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+
+    /** Writes the objects at OBJECTS into a new pack in the folder DIR, in
+     *  that order. The place of every object in the pack is worked out
+     *  first, so that the objects can then be copied into their places
+     *  concurrently on POOL. Each object's bytes are handed from their file
+     *  to the pack with FileChannel.transferFrom, without being deserialized
+     *  or copied through the heap. The pack is written under a temporary
+     *  name, which is returned; it is not visible to readers until it has
+     *  been indexed. */
+    static File write(File dir, List<ObjectStore.Location> objects,
+                      ExecutorService pool) {
+        dir.mkdirs();
+        try {
+            File tmp = File.createTempFile("tmp-", ".pack", dir);
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(PACK_MAGIC).putInt(objects.size()).flip();
+                writeFully(out, header, 0);
+                List<Long> positions = new ArrayList<>();
+                long pos = 8;
+                for (ObjectStore.Location loc : objects) {
+                    positions.add(pos);
+                    pos += 7 + loc._id.length() + loc._length;
+                }
+                List<Integer> order = new ArrayList<>();
+                for (int k = 0; k < objects.size(); k += 1) {
+                    order.add(k);
+                }
+                ObjectCopier.runAll(pool, order, "Writing objects", k -> {
+                    try {
+                        writeEntry(out, positions.get(k), objects.get(k));
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                });
+            }
+            return tmp;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the pack entry for the object at LOC into OUT at POS. */
+    private static void writeEntry(FileChannel out, long pos,
+                                   ObjectStore.Location loc)
+            throws IOException {
+        byte[] idBytes = loc._id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(7 + idBytes.length);
+        entry.put(ObjectStore.kindCode(loc._kind))
+                .putShort((short) idBytes.length).put(idBytes)
+                .putInt((int) loc._length).flip();
+        writeFully(out, entry, pos);
+        transfer(loc, out, pos + entry.capacity());
+    }
+
+    /** Writes all of BUF to OUT at POS. */
+    private static void writeFully(FileChannel out, ByteBuffer buf, long pos)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            pos += out.write(buf, pos);
+        }
+    }
+
+    /** Copies the bytes at LOC into OUT at POS. */
+    static void transfer(ObjectStore.Location loc, FileChannel out, long pos)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(loc._file.toPath(),
+                StandardOpenOption.READ)) {
+            in.position(loc._offset);
+            long done = 0;
+            while (done < loc._length) {
+                long n = out.transferFrom(in, pos + done,
+                        loc._length - done);
+                if (n <= 0) {
+                    throw new EOFException("object truncated");
+                }
+                done += n;
+            }
+        }
+    }
+
+    /** Reads the pack written to the temporary file TMP, writes its index
+     *  and moves both to their final names. Returns the indexed pack. */
+    static Pack index(File tmp) {
+        List<Entry> entries = new ArrayList<>();
+        int idLength = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(tmp), 1 << 16))) {
+            if (in.readInt() != PACK_MAGIC) {
+                throw new IllegalArgumentException("bad pack file");
+            }
+            int count = in.readInt();
+            long pos = 8;
+            for (int k = 0; k < count; k += 1) {
+                byte code = in.readByte();
+                String id = in.readUTF();
+                int length = in.readInt();
+                pos += 1 + 2 + id.length() + 4;
+                entries.add(new Entry(Utils.fromHex(id), code, pos, length));
+                idLength = id.length() / 2;
+                in.skipNBytes(length);
+                pos += length;
+            }
+        } catch (EOFException excp) {
+            throw new IllegalArgumentException("truncated pack file");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(entries);
+        String name = "pack-" + Utils.sha1(idList(entries));
+        File packFile = Utils.join(tmp.getParentFile(), name + ".pack");
+        writeIndex(Utils.join(tmp.getParentFile(), name + ".idx.tmp"),
+                entries, idLength);
+        try {
+            Files.move(tmp.toPath(), packFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.move(Utils.join(tmp.getParentFile(), name + ".idx.tmp")
+                            .toPath(), indexFile(packFile).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Pack(packFile);
+    }
+
+    /** Returns the SHA1s of ENTRIES, concatenated as bytes. */
+    private static byte[] idList(List<Entry> entries) {
+        ByteBuffer result = ByteBuffer.allocate(entries.stream()
+                .mapToInt(e -> e._id.length).sum());
+        for (Entry e : entries) {
+            result.put(e._id);
+        }
+        return result.array();
+    }
+
+    /** Writes the index of ENTRIES, which are sorted and whose SHA1s are
+     *  IDLENGTH bytes long, to FILE. */
+    private static void writeIndex(File file, List<Entry> entries,
+                                   int idLength) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE
+                + entries.size() * (idLength + 13));
+        buf.putInt(INDEX_MAGIC).putInt(entries.size()).putInt(idLength);
+        int[] fanout = new int[256];
+        for (Entry e : entries) {
+            fanout[e._id[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int k = 0; k < 256; k += 1) {
+            total += fanout[k];
+            buf.putInt(total);
+        }
+        for (Entry e : entries) {
+            buf.put(e._id).put(e._kind).putLong(e._offset).putInt(e._length);
+        }
+        Utils.writeContents(file, buf.array());
+    }
+
+    /** One object of a pack being indexed. */
+    private static class Entry implements Comparable<Entry> {
+        /** An entry for the object with SHA1 ID and kind KIND whose LENGTH
+         *  bytes start at OFFSET. */
+        Entry(byte[] id, byte kind, long offset, int length) {
+            _id = id;
+            _kind = kind;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Arrays.compareUnsigned(_id, other._id);
+        }
+
+        /** SHA1 of the object. */
+        private final byte[] _id;
+        /** Kind of the object. */
+        private final byte _kind;
+        /** Position of the object in the pack. */
+        private final long _offset;
+        /** Length of the object. */
+        private final int _length;
+    }
+
+    /** The pack file. */
+    private final File _packFile;
+
+    /** Contents of the index. */
+    private final ByteBuffer _index;
+
+    /** Number of objects in the pack. */
+    private final int _count;
+
+    /** Length in bytes of the SHA1s in the index. */
+    private final int _idLength;
+
+    /** Length in bytes of each index entry. */
+    private final int _entrySize;
+
+    /** The pack file, opened for reading on first use. */
+    private FileChannel _channel;
+}
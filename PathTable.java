@@ -0,0 +1,51 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** The file names seen by a store, each given a small number, its path
+ *  ID, in the order they were first seen. Every commit read from the store
+ *  names its files through the table, so a name tracked by thousands of
+ *  commits is held once, and Manifests can keep ints where they would
+ *  otherwise keep Strings. The table lives only as long as its store:
+ *  path IDs are never written out, since objects move between
+ *  repositories whose tables differ.
+ *  @author Jackie Lian
+ */
+class PathTable {
+
+    /** Returns the path ID of NAME, giving it the next one if it has
+     *  none. */
+    synchronized int intern(String name) {
+        Integer id = _ids.get(name);
+        if (id == null) {
+            id = _names.size();
+            _names.add(name);
+            _ids.put(name, id);
+        }
+        return id;
+    }
+
+    /** Returns the path ID of NAME, or -1 if it has none. */
+    synchronized int lookup(String name) {
+        Integer id = _ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** Returns the name whose path ID is ID. */
+    synchronized String name(int id) {
+        return _names.get(id);
+    }
+
+    /** Returns the copy of NAME held by this table, adding it if need
+     *  be. */
+    synchronized String canonical(String name) {
+        return _names.get(intern(name));
+    }
+
+    /** The path ID of each name. */
+    private final HashMap<String, Integer> _ids = new HashMap<>();
+
+    /** The names, by path ID. */
+    private final ArrayList<String> _names = new ArrayList<>();
+}
@@ -0,0 +1,436 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/** The past values of the head and of each branch, kept in the folder
+ *  logs in .gitlet: the file HEAD for the head, and a file in the folder
+ *  branches for each branch, whose name is the branch's name escaped so
+ *  that it is always a single name of a file there. Each update of a ref
+ *  appends one record to its file, in a single write: the time, the SHA1s
+ *  before and after as bytes, each preceded by its length, the command
+ *  that made the change, cut short if need be, and finally the length of
+ *  the whole record. The lengths at the ends let
+ *  the file be read from its end, newest record first, so that ref@{n}
+ *  reads only n + 1 records and a lookup by time only those since that
+ *  time. Records are never changed; expire rewrites a log without its
+ *  oldest ones. In a durable repository the logs appended to are forced
+ *  to disk together by sync, once the refs they record have been.
+ *  @author Jackie Lian
+ */
+class RefLog {
+
+    /** Name of the folder in .gitlet holding the logs. */
+    static final String LOG_DIR = "logs";
+
+    /** Name of the ref of the head. */
+    static final String HEAD = "HEAD";
+
+    /** Name of the folder in LOG_DIR holding the logs of branches. */
+    private static final String BRANCHES = "branches";
+
+    /** Number of bytes in a record besides its SHA1s and command. */
+    private static final int FIXED_LENGTH = 8 + 1 + 1 + 2 + 4;
+
+    /** Most bytes in the stored form of the command of a record. */
+    private static final int MAX_COMMAND = 0xffff;
+
+    /** The characters of a branch's name that stand for themselves in
+     *  the name of its log. */
+    private static final String PLAIN =
+            "abcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    /** The logs of the repository whose .gitlet folder is GITLET. */
+    RefLog(File gitlet) {
+        _dir = Utils.join(gitlet, LOG_DIR);
+        _batch = new WriteBatch(WriteBatch.isDurable(gitlet));
+    }
+
+    /** Records that REF moved from the commit OLDID, which is empty if
+     *  REF is new, to NEWID, by the command COMMAND. The record is on disk
+     *  only after the next sync. The refs are saved before they are
+     *  logged, so a log that cannot be written is reported rather than
+     *  ending the command. */
+    void append(String ref, String oldId, String newId, String command) {
+        File file = file(ref);
+        file.getParentFile().mkdirs();
+        byte[] record = encode(new Entry(System.currentTimeMillis(), oldId,
+                newId, command));
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(record);
+        } catch (IOException excp) {
+            Utils.message("Could not log the update of %s: %s", ref,
+                    excp.getMessage());
+            return;
+        }
+        _batch.add(file);
+    }
+
+    /** In a durable repository, forces the logs appended to since the
+     *  last call to disk, with their folders. Like append, reports a
+     *  failure rather than ending the command. */
+    void sync() {
+        try {
+            _batch.sync();
+        } catch (IllegalArgumentException excp) {
+            Utils.message("Could not save the reflogs: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the entries of the log of REF, newest first, up to and
+     *  including the first for which DONE is true, if any. */
+    List<Entry> entries(String ref, Predicate<Entry> done) {
+        List<Entry> result = new ArrayList<>();
+        File file = file(ref);
+        if (!file.isFile()) {
+            return result;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long end = in.length();
+            while (end >= FIXED_LENGTH) {
+                in.seek(end - 4);
+                int length = in.readInt();
+                if (length < FIXED_LENGTH || length > end) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.seek(end - length);
+                in.readFully(record);
+                Entry entry = decode(record);
+                result.add(entry);
+                if (done.test(entry)) {
+                    break;
+                }
+                end -= length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns all the entries of the log of REF, newest first. */
+    List<Entry> entries(String ref) {
+        return entries(ref, e -> false);
+    }
+
+    /** Returns the Nth newest entry of the log of REF, counting from 0, or
+     *  null if there are not that many. */
+    Entry get(String ref, int n) {
+        int[] seen = {0};
+        List<Entry> entries = entries(ref, e -> ++seen[0] > n);
+        return n < entries.size() ? entries.get(n) : null;
+    }
+
+    /** Returns the newest entry of the log of REF made no later than TIME,
+     *  in milliseconds since the epoch, or null if there is none. */
+    Entry at(String ref, long time) {
+        List<Entry> entries = entries(ref, e -> e.getTime() <= time);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Entry last = entries.get(entries.size() - 1);
+        return last.getTime() <= time ? last : null;
+    }
+
+    /** Removes the log of REF. */
+    void delete(String ref) {
+        file(ref).delete();
+    }
+
+    /** Returns the SHA1s of every commit named by any log. */
+    Set<String> ids() {
+        Set<String> result = new HashSet<>();
+        for (String ref : refs()) {
+            for (Entry entry : entries(ref)) {
+                if (!entry.getOldId().isEmpty()) {
+                    result.add(entry.getOldId());
+                }
+                result.add(entry.getNewId());
+            }
+        }
+        return result;
+    }
+
+    /** Removes from every log the entries made before CUTOFF, in
+     *  milliseconds since the epoch. Returns the number removed. */
+    int expire(long cutoff) {
+        int removed = 0;
+        for (String ref : refs()) {
+            List<Entry> entries = entries(ref);
+            List<Entry> kept = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.getTime() >= cutoff) {
+                    kept.add(entry);
+                }
+            }
+            if (kept.size() == entries.size()) {
+                continue;
+            }
+            removed += entries.size() - kept.size();
+            Collections.reverse(kept);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (Entry entry : kept) {
+                bytes.writeBytes(encode(entry));
+            }
+            replace(file(ref), bytes.toByteArray());
+        }
+        return removed;
+    }
+
+    /** Returns the refs that have logs. */
+    List<String> refs() {
+        List<String> result = new ArrayList<>();
+        if (Utils.join(_dir, HEAD).isFile()) {
+            result.add(HEAD);
+        }
+        File[] files = Utils.join(_dir, BRANCHES).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().endsWith(".tmp")) {
+                    result.add(unescape(file.getName()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Moves the logs of branches kept as earlier versions kept them, a
+     *  folder for each part of a name but the last, to the files that
+     *  name them now, adding the records of any log already there after
+     *  their own. Returns the number moved. */
+    int upgrade() {
+        File branches = Utils.join(_dir, BRANCHES);
+        Map<String, byte[]> moved = new TreeMap<>();
+        collectOld(branches, "", moved);
+        for (String ref : moved.keySet()) {
+            Utils.join(branches, ref.split("/")).delete();
+        }
+        for (Map.Entry<String, byte[]> e : moved.entrySet()) {
+            File file = file(e.getKey());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.writeBytes(e.getValue());
+            if (file.isFile()) {
+                bytes.writeBytes(Utils.readContents(file));
+            }
+            replace(file, bytes.toByteArray());
+        }
+        deleteEmptyFolders(branches);
+        return moved.size();
+    }
+
+    /** Adds to MOVED the name and contents of each log in DIR, a folder
+     *  of the earlier layout for the names starting with PREFIX, that is
+     *  not where file puts it now. A name with a % directly in the folder
+     *  of branches is taken to be a log already named as now, written to
+     *  a remote by a later version before the remote was upgraded. */
+    private void collectOld(File dir, String prefix,
+                            Map<String, byte[]> moved) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String ref = prefix + file.getName();
+            if (file.isDirectory()) {
+                collectOld(file, ref + "/", moved);
+            } else if (!file.getName().endsWith(".tmp")
+                    && !file.equals(file(ref))
+                    && !(prefix.isEmpty() && ref.contains("%"))) {
+                moved.put(ref, Utils.readContents(file));
+            }
+        }
+    }
+
+    /** Removes the folders within DIR that hold no files. */
+    private static void deleteEmptyFolders(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteEmptyFolders(file);
+                file.delete();
+            }
+        }
+    }
+
+    /** Makes DATA the contents of FILE, by writing it beside FILE and
+     *  moving it over FILE, so that FILE is always whole. */
+    private static void replace(File file, byte[] data) {
+        File tmp = Utils.join(file.getParentFile(),
+                file.getName() + ".tmp");
+        Utils.writeContents(tmp, data);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the file holding the log of REF, which is always within
+     *  the folder of the logs, whatever REF is. */
+    private File file(String ref) {
+        if (ref.equals(HEAD)) {
+            return Utils.join(_dir, HEAD);
+        }
+        return Utils.join(Utils.join(_dir, BRANCHES), escape(ref));
+    }
+
+    /** Returns the name of the log of the branch NAME: NAME with every
+     *  character but a lower-case letter, a digit, - and _ written as %
+     *  and two hexadecimal digits for each of its UTF-8 bytes. Distinct
+     *  names give distinct results even where case is ignored, and none
+     *  holds a / or a ., so none leaves the folder or ends with .tmp. */
+    static String escape(String name) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            if (b >= 0 && PLAIN.indexOf(b) >= 0) {
+                result.append((char) b);
+            } else {
+                result.append(String.format("%%%02x", b & 0xff));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the name of the branch whose log is named NAME, undoing
+     *  escape. */
+    static String unescape(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int k = 0; k < name.length(); k += 1) {
+            char c = name.charAt(k);
+            if (c == '%' && k + 2 < name.length()) {
+                bytes.write(Integer.parseInt(name.substring(k + 1, k + 3),
+                        16));
+                k += 2;
+            } else {
+                bytes.writeBytes(String.valueOf(c)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the stored form of ENTRY. */
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            byte[] oldId = Utils.fromHex(entry.getOldId());
+            byte[] newId = Utils.fromHex(entry.getNewId());
+            out.writeLong(entry.getTime());
+            out.writeByte(oldId.length);
+            out.write(oldId);
+            out.writeByte(newId.length);
+            out.write(newId);
+            out.writeUTF(fit(entry.getCommand()));
+            out.writeInt(out.size() + 4);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the longest start of COMMAND that writeUTF can store, in at
+     *  most MAX_COMMAND bytes of its modified UTF-8, without splitting a
+     *  pair of surrogates. */
+    private static String fit(String command) {
+        int bytes = 0;
+        for (int k = 0; k < command.length(); k += 1) {
+            char c = command.charAt(k);
+            bytes += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            if (bytes > MAX_COMMAND) {
+                if (k > 0 && Character.isHighSurrogate(command.charAt(k - 1))) {
+                    k -= 1;
+                }
+                return command.substring(0, k);
+            }
+        }
+        return command;
+    }
+
+    /** Returns the entry whose stored form is RECORD. */
+    private static Entry decode(byte[] record) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(record));
+        long time = in.readLong();
+        byte[] oldId = new byte[in.readUnsignedByte()];
+        in.readFully(oldId);
+        byte[] newId = new byte[in.readUnsignedByte()];
+        in.readFully(newId);
+        return new Entry(time, Utils.toHex(oldId), Utils.toHex(newId),
+                in.readUTF());
+    }
+
+    /** One update of a ref. */
+    static class Entry {
+
+        /** The update at TIME from OLDID to NEWID by COMMAND. */
+        Entry(long time, String oldId, String newId, String command) {
+            _time = time;
+            _oldId = oldId;
+            _newId = newId;
+            _command = command;
+        }
+
+        /** Returns when the update was made, in milliseconds since the
+         *  epoch. */
+        long getTime() {
+            return _time;
+        }
+
+        /** Returns the SHA1 of the commit before, or an empty string. */
+        String getOldId() {
+            return _oldId;
+        }
+
+        /** Returns the SHA1 of the commit after. */
+        String getNewId() {
+            return _newId;
+        }
+
+        /** Returns the command that made the update. */
+        String getCommand() {
+            return _command;
+        }
+
+        /** Time of the update. */
+        private final long _time;
+
+        /** SHA1 before. */
+        private final String _oldId;
+
+        /** SHA1 after. */
+        private final String _newId;
+
+        /** The command. */
+        private final String _command;
+    }
+
+    /** The folder holding the logs. */
+    private final File _dir;
+
+    /** The logs appended to and not yet forced. */
+    private final WriteBatch _batch;
+}
@@ -0,0 +1,318 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/** Finds the files renamed between two versions of a tree. A blob's SHA1
+ *  covers its file name, so a renamed file always gets a new blob; files
+ *  are instead compared through a sketch of their content, computed once
+ *  per blob and kept in the folder sketches in .gitlet. A sketch holds the
+ *  SHA1 of the content, which pairs exact renames, and a MinHash of the
+ *  set of lines: HASHES minimums, each over the lines under a different
+ *  hash function, so that the share of minimums two sketches agree on
+ *  estimates the share of lines the files have in common.
+ *
+ *  Rather than comparing every removed file with every added one, the
+ *  minimums are cut into BANDS bands of ROWS each, and only files that
+ *  agree on a whole band are compared. Two files with half their lines in
+ *  common share a band more than nine times in ten; two with a tenth in
+ *  common, about one time in fifty.
+ *  @author Jackie Lian
+ */
+class RenameDetector {
+
+    /** Name of the folder in .gitlet holding the sketches. */
+    static final String SKETCH_DIR = "sketches";
+
+    /** Least similarity, in percent, of a file to the one it was renamed
+     *  from. */
+    static final int MIN_SIMILARITY = 50;
+
+    /** Number of minimums in a sketch. */
+    private static final int HASHES = 60;
+
+    /** Number of minimums in a band. */
+    private static final int ROWS = 3;
+
+    /** Number of bands. */
+    private static final int BANDS = HASHES / ROWS;
+
+    /** Length of the SHA1 of the content at the start of a sketch. */
+    private static final int DIGEST_LENGTH = 20;
+
+    /** A detector for the repository whose .gitlet folder is GITLET, which
+     *  reads the content of a blob through CONTENTS. */
+    RenameDetector(File gitlet, Function<String, String> contents) {
+        _dir = Utils.join(gitlet, SKETCH_DIR);
+        _contents = contents;
+    }
+
+    /** Returns the renames from the files BEFORE to the files AFTER, both
+     *  mapping file names to blob SHA1s, as a map from each old name to its
+     *  new one. Only files in BEFORE alone and files in AFTER alone are
+     *  considered, and each is paired at most once: exact renames first,
+     *  then the most similar pairs. */
+    Map<String, String> detect(Map<String, String> before,
+                               Map<String, String> after) {
+        List<String> removed = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        for (String name : new TreeSet<>(before.keySet())) {
+            if (!after.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        for (String name : new TreeSet<>(after.keySet())) {
+            if (!before.containsKey(name)) {
+                added.add(name);
+            }
+        }
+        Map<String, String> result = new TreeMap<>();
+        if (removed.isEmpty() || added.isEmpty()) {
+            return result;
+        }
+        Set<String> blobs = new HashSet<>();
+        removed.forEach(name -> blobs.add(before.get(name)));
+        added.forEach(name -> blobs.add(after.get(name)));
+        blobs.parallelStream().forEach(this::sketch);
+        Set<String> taken = new HashSet<>();
+        Map<String, List<String>> byDigest = new HashMap<>();
+        for (String name : removed) {
+            ByteBuffer sketch = sketch(before.get(name));
+            if (!empty(sketch)) {
+                byDigest.computeIfAbsent(digest(sketch),
+                        d -> new ArrayList<>()).add(name);
+            }
+        }
+        for (String name : added) {
+            List<String> same = byDigest.get(digest(sketch(after.get(name))));
+            if (same != null && !same.isEmpty()) {
+                String old = same.remove(0);
+                result.put(old, name);
+                taken.add(name);
+            }
+        }
+        List<Candidate> candidates = candidates(before, after, removed,
+                added, result.keySet(), taken);
+        candidates.sort(Comparator.comparingInt((Candidate c) -> -c._score)
+                .thenComparing(c -> c._old).thenComparing(c -> c._new));
+        for (Candidate c : candidates) {
+            if (!result.containsKey(c._old) && taken.add(c._new)) {
+                result.put(c._old, c._new);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the pairs of a file in REMOVED, with blobs in BEFORE, and a
+     *  file in ADDED, with blobs in AFTER, that share a band and are
+     *  similar enough, leaving out the files in DONE and TAKEN. */
+    private List<Candidate> candidates(Map<String, String> before,
+                                       Map<String, String> after,
+                                       List<String> removed,
+                                       List<String> added,
+                                       Set<String> done, Set<String> taken) {
+        Map<Band, List<String>> bands = new HashMap<>();
+        for (String name : removed) {
+            ByteBuffer sketch = sketch(before.get(name));
+            if (done.contains(name) || empty(sketch)) {
+                continue;
+            }
+            for (int b = 0; b < BANDS; b += 1) {
+                bands.computeIfAbsent(new Band(b, sketch),
+                        k -> new ArrayList<>()).add(name);
+            }
+        }
+        List<Candidate> result = new ArrayList<>();
+        for (String name : added) {
+            ByteBuffer sketch = sketch(after.get(name));
+            if (taken.contains(name) || empty(sketch)) {
+                continue;
+            }
+            Set<String> seen = new HashSet<>();
+            for (int b = 0; b < BANDS; b += 1) {
+                for (String old : bands.getOrDefault(new Band(b, sketch),
+                        new ArrayList<>())) {
+                    if (!seen.add(old)) {
+                        continue;
+                    }
+                    int score = similarity(sketch(before.get(old)), sketch);
+                    if (score >= MIN_SIMILARITY) {
+                        result.add(new Candidate(old, name, score));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the estimated share, in percent, of lines in common between
+     *  the files with sketches A and B. */
+    private static int similarity(ByteBuffer a, ByteBuffer b) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i += 1) {
+            if (minimum(a, i) == minimum(b, i)) {
+                same += 1;
+            }
+        }
+        return same * 100 / HASHES;
+    }
+
+    /** Returns true iff SKETCH is that of a file without lines, which is
+     *  not taken to be renamed from or to anything. */
+    private static boolean empty(ByteBuffer sketch) {
+        return sketch.capacity() == DIGEST_LENGTH;
+    }
+
+    /** Returns the Ith minimum of SKETCH. */
+    private static long minimum(ByteBuffer sketch, int i) {
+        return sketch.getLong(DIGEST_LENGTH + 8 * i);
+    }
+
+    /** Returns the SHA1 of the content in SKETCH, in hexadecimal. */
+    private static String digest(ByteBuffer sketch) {
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i += 1) {
+            digest[i] = sketch.get(i);
+        }
+        return Utils.toHex(digest);
+    }
+
+    /** Returns the sketch of the blob ID, reading it from the folder of
+     *  sketches or making and saving it. The sketch of an empty file has
+     *  no minimums, as such a file is similar to nothing. */
+    private ByteBuffer sketch(String id) {
+        ByteBuffer cached = _sketches.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        File file = Utils.join(_dir, id);
+        ByteBuffer result = null;
+        if (file.isFile()) {
+            result = ByteBuffer.wrap(Utils.readContents(file));
+        }
+        if (result == null || result.capacity() != DIGEST_LENGTH
+                && result.capacity() != DIGEST_LENGTH + 8 * HASHES) {
+            String content = _contents.apply(id);
+            Set<String> lines = new HashSet<>(Arrays.asList(
+                    content.split("\n")));
+            lines.remove("");
+            result = ByteBuffer.allocate(DIGEST_LENGTH
+                    + (lines.isEmpty() ? 0 : 8 * HASHES));
+            result.put(Utils.fromHex(Utils.sha1(content)
+                    .substring(0, 2 * DIGEST_LENGTH)));
+            for (int i = 0; i < HASHES && !lines.isEmpty(); i += 1) {
+                long min = Long.MAX_VALUE;
+                for (String line : lines) {
+                    min = Math.min(min, mix(line.hashCode() ^ SEEDS[i]));
+                }
+                result.putLong(min);
+            }
+            save(file, result.array());
+        }
+        _sketches.put(id, result);
+        return result;
+    }
+
+    /** Writes SKETCH to FILE by way of a temporary file, so that no one
+     *  reads half a sketch. */
+    private void save(File file, byte[] sketch) {
+        try {
+            _dir.mkdirs();
+            File tmp = File.createTempFile("tmp-", "", _dir);
+            Utils.writeContents(tmp, sketch);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns X with its bits mixed, so that any change to X changes
+     *  about half of them (the finalizer of SplitMix64). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** The value mixed into each line's hash by each hash function. */
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        for (int i = 0; i < HASHES; i += 1) {
+            SEEDS[i] = mix(0x9e3779b97f4a7c15L * (i + 1));
+        }
+    }
+
+    /** One band of a sketch, as a key for finding sketches that agree on
+     *  it. */
+    private static class Band {
+        /** Band number B of SKETCH. */
+        Band(int b, ByteBuffer sketch) {
+            _values = new long[ROWS + 1];
+            _values[0] = b;
+            for (int r = 0; r < ROWS; r += 1) {
+                _values[r + 1] = minimum(sketch, b * ROWS + r);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Band
+                    && Arrays.equals(_values, ((Band) obj)._values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(_values);
+        }
+
+        /** The band number followed by its minimums. */
+        private final long[] _values;
+    }
+
+    /** A possible rename from _OLD to _NEW, whose similarity is _SCORE. */
+    private static class Candidate {
+        /** A rename from OLD to NEW with similarity SCORE. */
+        Candidate(String old, String nu, int score) {
+            _old = old;
+            _new = nu;
+            _score = score;
+        }
+
+        /** The old name. */
+        private final String _old;
+
+        /** The new name. */
+        private final String _new;
+
+        /** The similarity, in percent. */
+        private final int _score;
+    }
+
+    /** The folder of sketches. */
+    private final File _dir;
+
+    /** Returns the content of a blob, given its SHA1. */
+    private final Function<String, String> _contents;
+
+    /** Sketches read or made so far, by blob SHA1. */
+    private final Map<String, ByteBuffer> _sketches =
+            new ConcurrentHashMap<>();
+}
@@ -1,26 +1,57 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayDeque;
 import java.util.Queue;
-import java.text.SimpleDateFormat;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Repo implements Serializable {
 
+    /**
+     * The serialVersionUID of the first version of Repo, so that the repos
+     * it made still open.
+     */
+    private static final long serialVersionUID = 5029642312535897763L;
+
+    /**
+     * Version of the layout of the objects of a repo made now.
+     */
+    private static final int FORMAT = 2;
+
     /**
      * KEY is the branch's name, VALUE is the SHA1 of the commit object
      * the branch points to.
      */
-    private Map<String, String> _branches;
+    private Map<String, ObjectId> _branches;
 
     /**
      * Stores the remotes, KEY is the remote name and VALUE is the path to
@@ -55,14 +86,79 @@ public class Repo implements Serializable {
     private Map<String, String> _stagedForRemoval;
 
     /**
-     * Path to the commits folder from the current working directory.
+     * Stores the shallow commits: those whose parents were left out by a
+     * depth-limited fetch and are missing from this repo.
+     */
+    private Set<String> _shallow;
+
+    /**
+     * Name of the remote that promises the blobs left out by a blobless
+     * fetch, or null if every blob is here.
+     */
+    private String _promisor;
+
+    /**
+     * What the last status found in the working directory while a watcher
+     * was running, or null.
      */
-    private File _commits = Utils.join(Main.getGitlet(), "commits/");
+    private Watcher.Snapshot _snapshot;
 
     /**
-     * Path to the blobs folder from the current working directory.
+     * Version of the layout of the objects of this repo: 0 for a repo made
+     * by the first version of Gitlet, whose commits are stored whole, and
+     * 1 for one whose reflogs are kept in a folder for each part of a
+     * branch's name, until upgrade brings them up to date.
      */
-    private File _blobFolder = Utils.join(Main.getGitlet(), "blobs/");
+    private int _format;
+
+    /**
+     * The commits and blobs of this repo, opened on first use.
+     */
+    private transient ObjectStore _store;
+
+    /**
+     * The files checked out, read on first use.
+     */
+    private transient SparseCheckout _sparse;
+
+    /**
+     * The head, active branch and branches when last read or written,
+     * against which save finds the refs to log.
+     */
+    private transient String _loggedHead;
+
+    /**
+     * The active branch when last read or written.
+     */
+    private transient String _loggedBranch;
+
+    /**
+     * The branches when last read or written.
+     */
+    private transient Map<String, ObjectId> _loggedBranches;
+
+    /**
+     * Number of commits global-log reads at once.
+     */
+    private static final int GLOBAL_LOG_WINDOW = 256;
+
+    /**
+     * Format of the dates printed by blame.
+     */
+    private static final String BLAME_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss Z";
+
+    /**
+     * Pattern of REF@{N} and REF@{DATE}.
+     */
+    private static final Pattern REFLOG_REF =
+            Pattern.compile("(.+)@\\{(.+)}");
+
+    /**
+     * Formats of the dates in REF@{DATE}, tried in order.
+     */
+    private static final String[] REFLOG_DATE_FORMATS = {
+        "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"
+    };
 
     /**
      * Path to the current working directory.
@@ -74,13 +170,14 @@ public class Repo implements Serializable {
         _remotes = new HashMap<>();
         Commit initial = new Commit();
         _head = _master = initial.getSHA1();
-        File initialCommit = Utils.join(_commits, initial.getSHA1());
-        initialCommit.createNewFile();
-        Utils.writeObject(initialCommit, initial);
-        _branches.put("master", _master);
+        store().writeCommit(_head, initial);
+        messages().addAll(Collections.singletonList(_head));
+        setBranch("master", _master);
         _activeBranch = "master";
         _stagingArea = new TreeMap<String, String>();
         _stagedForRemoval = new TreeMap<>();
+        _shallow = new TreeSet<>();
+        _format = FORMAT;
     }
 
     /**
@@ -94,43 +191,52 @@ public class Repo implements Serializable {
      * the staging area if it is already there (as can happen when a file is
      * changed, added, and then changed back). The file will no longer be
      * staged for removal (see gitlet rm), if it was at the time of the
-     * command.
+     * command. Adding . adds every file in the working directory, reading
+     * only those a running watcher saw change.
      */
     public void add(String filename) throws IOException {
-        File headFile = Utils.join(_commits, _head);
+        Commit head = readCommit(_head);
+        if (filename.equals(".")) {
+            Set<String> changed = changedFiles(watcher().changes(_snapshot),
+                    head);
+            for (String name : changed == null
+                    ? Utils.plainFilenamesIn(_cwd) : plainFilesAmong(changed)) {
+                add(name, head);
+            }
+        } else {
+            add(filename, head);
+        }
+    }
+
+    /**
+     * Stages FILENAME as for add, where HEAD is the head commit.
+     */
+    private void add(String filename, Commit head) throws IOException {
         File file = Utils.join(_cwd, filename);
         if (!file.exists()) {
             Utils.message("File does not exist.");
             System.exit(0);
         }
-        Commit head = Utils.readObject(headFile, Commit.class);
         _stagedForRemoval.remove(filename);
-        if (head.getBlobs().containsKey(filename)) {
-            String fileSHA = head.getBlobs().get(filename);
-            Blob lastBlob = Utils.readObject(Utils.join(_blobFolder, fileSHA),
-                    Blob.class);
-            if (lastBlob.getContent().
-                    equals(Utils.readContentsAsString(file))) {
+        String fileSHA = head.getBlob(filename);
+        if (fileSHA != null) {
+            Blob newBlob =
+                    new Blob(filename, Utils.readContentsAsString(file));
+            if (newBlob.getSHA1().equals(fileSHA)) {
                 if (_stagingArea.containsKey(filename)) {
                     _stagingArea.remove(filename);
                 }
             } else {
-                Blob newBlob =
-                        new Blob(filename, Utils.readContentsAsString(file));
                 _stagingArea.put(filename, newBlob.getSHA1());
-                File newBlobFile = Utils.join(_blobFolder, newBlob.getSHA1());
-                Utils.writeObject(newBlobFile, newBlob);
+                writeBlob(newBlob);
             }
         } else if (_stagingArea.containsKey(filename)) {
             Blob newBlob = new Blob(filename, Utils.readContentsAsString(file));
             _stagingArea.put(filename, newBlob.getSHA1());
-            File newBlobFile = Utils.join(_blobFolder, newBlob.getSHA1());
-            Utils.writeObject(newBlobFile, newBlob);
+            writeBlob(newBlob);
         } else {
             Blob newBlob = new Blob(filename, Utils.readContentsAsString(file));
-            File newBlobFile = Utils.join(_blobFolder, newBlob.getSHA1());
-            newBlobFile.createNewFile();
-            Utils.writeObject(newBlobFile, newBlob);
+            writeBlob(newBlob);
             _stagingArea.put(filename, newBlob.getSHA1());
         }
     }
@@ -149,55 +255,37 @@ public class Repo implements Serializable {
         if (args.length != 1) {
             secondParent = args[1];
         }
-        Commit newCommit = new Commit(msg, _head, secondParent, _activeBranch);
-        Commit lastCommit =
-                Utils.readObject(Utils.join(_commits, _head), Commit.class);
-        for (Map.Entry element : _stagingArea.entrySet()) {
-            File f = Utils.join(_blobFolder, (String) element.getValue());
-            Blob currBlob = Utils.readObject(f, Blob.class);
-            if (lastCommit.getBlobs().containsKey(currBlob.getName())) {
-                String lastAddress =
-                        lastCommit.getBlobs().get(currBlob.getName());
-                File lastFile = Utils.join(_blobFolder, lastAddress);
-                Blob lastBlob = Utils.readObject(lastFile, Blob.class);
-                if (!lastBlob.getContent().equals(currBlob.getContent())) {
-                    newCommit.getBlobs().replace(lastBlob.getName(),
-                            (String) element.getValue());
-                }
-            } else {
-                newCommit.addBlob(currBlob);
-            }
+        Commit lastCommit = readCommit(_head);
+        Commit newCommit = new Commit(msg, _head, secondParent, _activeBranch,
+                lastCommit);
+        /* A blob's SHA1 covers its name and content, so the staged SHA1s
+         * are enough, and large blobs are never read back whole. */
+        for (Map.Entry<String, String> element : _stagingArea.entrySet()) {
+            newCommit.getBlobs().put(element.getKey(), element.getValue());
         }
-        for (Map.Entry element : _stagedForRemoval.entrySet()) {
-            File f = Utils.join(_blobFolder, (String) element.getValue());
-            Blob currBlob = Utils.readObject(f, Blob.class);
-            newCommit.removeBlob(currBlob);
+        for (String filename : _stagedForRemoval.keySet()) {
+            newCommit.getBlobs().remove(filename);
         }
         _stagingArea.clear();
         _stagedForRemoval.clear();
         _head = newCommit.getSHA1();
-        _branches.replace(_activeBranch, _head);
-        File newCommitFile = Utils.join(_commits, newCommit.getSHA1());
-        newCommitFile.createNewFile();
-        Utils.writeObject(newCommitFile, newCommit);
+        _branches.replace(_activeBranch, ObjectId.fromHex(_head));
+        store().writeCommit(_head, newCommit);
+        messages().addAll(Collections.singletonList(_head));
     }
 
     public void checkout(String filename) throws IOException {
-        File prevCommit = Utils.join(_commits, _head);
-        Commit prevCommitObj = Utils.readObject(prevCommit, Commit.class);
+        Commit prevCommitObj = readCommit(_head);
         if (!prevCommitObj.getBlobs().containsKey(filename)) {
             Utils.message("File does not exist in that commit.");
             return;
         }
         File currVersion = Utils.join(_cwd, filename);
         String commitedFileName = prevCommitObj.getBlobs().get(filename);
-        File commitedVersion = Utils.join(_blobFolder, commitedFileName);
-        Blob commitedBlob = Utils.readObject(commitedVersion, Blob.class);
-        String commitedContent = commitedBlob.getContent();
         if (!currVersion.exists()) {
             currVersion.createNewFile();
         }
-        Utils.writeContents(currVersion, commitedContent);
+        writeBlobTo(commitedFileName, currVersion);
     }
 
     public void checkout(String commitId, String filename) throws IOException {
@@ -207,20 +295,16 @@ public class Repo implements Serializable {
             System.exit(0);
         }
         File currVersion = Utils.join(_cwd, filename);
-        File prevCommitFile = Utils.join(_commits, completeID);
-        Commit prevCommitObj = Utils.readObject(prevCommitFile, Commit.class);
+        Commit prevCommitObj = readCommit(completeID);
         if (!prevCommitObj.getBlobs().containsKey(filename)) {
             Utils.message("File does not exist in that commit.");
             System.exit(0);
         }
         String commitedFilename = prevCommitObj.getBlobs().get(filename);
-        File commitedVersion = Utils.join(_blobFolder, commitedFilename);
-        Blob committedBlob = Utils.readObject(commitedVersion, Blob.class);
-        String committedContent = committedBlob.getContent();
         if (!currVersion.exists()) {
             currVersion.createNewFile();
         }
-        Utils.writeContents(currVersion, committedContent);
+        writeBlobTo(commitedFilename, currVersion);
     }
 
     public void checkout(String branchName, boolean boo) throws IOException {
@@ -231,57 +315,91 @@ public class Repo implements Serializable {
             Utils.message("No need to checkout the current branch.");
             System.exit(0);
         } else {
-            Commit branch = readCommit(_branches.get(branchName));
+            Commit branch = readCommit(branchHead(branchName));
             Commit head = readCommit(_head);
+            Set<String> changed =
+                    changedFiles(watcher().changes(_snapshot), head);
             for (Map.Entry blobName : branch.getBlobs().entrySet()) {
-                File file = Utils.join(_cwd, (String) blobName.getKey());
-                if (file.exists()) {
-                    if (!head.getBlobs().containsKey(blobName.getKey())) {
-                        Utils.message("There is an untracked file in "
-                                + "the way; delete it, or add and commit it "
-                                + "first.");
-                        System.exit(0);
-                    }
-                    Blob thisBlob = Utils.readObject(Utils.join(_blobFolder,
-                            (String) blobName.getValue()), Blob.class);
-                    String newContent = thisBlob.getContent();
-                    Utils.writeContents(file, newContent);
-                } else {
-                    file.createNewFile();
-                    Blob thisBlob = Utils.readObject(Utils.join(_blobFolder,
-                            (String) blobName.getValue()), Blob.class);
-                    Utils.writeContents(file, thisBlob.getContent());
+                String name = (String) blobName.getKey();
+                if (!sparse().contains(name)) {
+                    continue;
                 }
+                File file = Utils.join(_cwd, name);
+                if (!head.getBlobs().containsKey(name)
+                        && mayBeUntracked(changed, name) && file.exists()) {
+                    Utils.message("There is an untracked file in "
+                            + "the way; delete it, or add and commit it "
+                            + "first.");
+                    System.exit(0);
+                }
+                writeBlobTo((String) blobName.getValue(), file);
             }
             List<String> files = Utils.plainFilenamesIn(_cwd);
             for (int i = 0; i < files.size(); i++) {
                 File thisFile = Utils.join(_cwd, files.get(i));
                 if (head.getBlobs().containsKey(files.get(i))
-                        && !branch.getBlobs().containsKey(files.get(i))) {
+                        && (!branch.getBlobs().containsKey(files.get(i))
+                        || !sparse().contains(files.get(i)))) {
                     Utils.restrictedDelete(thisFile);
                 }
             }
         }
         _activeBranch = branchName;
-        _head = _branches.get(branchName);
+        _head = branchHead(branchName);
         _stagingArea.clear();
     }
 
     public void log() {
-        String currHead = _head;
-        while (!currHead.equals("")) {
-            Commit currCommit = Utils.readObject(Utils.join(_commits, currHead),
-                    Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + currCommit.getSHA1());
-            String pattern = "EEE MMM d HH:mm:ss yyyy Z";
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-            String date = simpleDateFormat.format(currCommit.getTimestamp());
-            System.out.println("Date: " + date);
-            System.out.println(currCommit.getMessage());
-            System.out.println("");
-            currHead = currCommit.getParent();
+        log(Integer.MAX_VALUE, false, false, null);
+    }
+
+    /**
+     * Prints at most LIMIT commits of the history of the head, one line
+     * each iff ONELINE. The history follows first parents only, unless
+     * TOPOLOGICAL, in which case it takes in both parents of merges, with
+     * every commit printed before its parents. If PATH is not null, only
+     * the commits that changed the file PATH are printed.
+     */
+    public void log(int limit, boolean oneline, boolean topological,
+                    String path) {
+        LogEngine engine = new LogEngine(store(), _shallow, limit, oneline,
+                path);
+        if (topological) {
+            engine.topological(_head);
+        } else {
+            engine.firstParent(_head);
+        }
+    }
+
+    /**
+     * Prints each line of the file FILENAME as of the head commit, after
+     * the abbreviated SHA1 and date of the commit that last changed it and
+     * the line number.
+     */
+    public void blame(String filename) {
+        String blobID = readCommit(_head).getBlobs().get(filename);
+        if (blobID == null) {
+            Utils.message("File does not exist in that commit.");
+            System.exit(0);
+        }
+        String[] origins = new Blame(store(), _shallow,
+            id -> readBlob(id).getContent()).blame(_head, filename);
+        List<String> lines = Blame.lines(readBlob(blobID).getContent());
+        SimpleDateFormat format = new SimpleDateFormat(BLAME_DATE_FORMAT);
+        Map<String, String> dates = new HashMap<>();
+        String width = Integer.toString(String.valueOf(lines.size())
+                .length());
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        for (int i = 0; i < origins.length; i += 1) {
+            String date = dates.computeIfAbsent(origins[i],
+                id -> format.format(readCommit(id).getTimestamp()));
+            out.printf("%s (%s %" + width + "d) %s%n",
+                    origins[i].substring(0, Math.min(
+                            LogEngine.ABBREV_LENGTH, origins[i].length())),
+                    date, i + 1, lines.get(i));
         }
+        out.flush();
     }
 
     public void rm(String filename) {
@@ -297,41 +415,94 @@ public class Repo implements Serializable {
     }
 
     public void globalLog() {
-        List<String> commits = Utils.plainFilenamesIn(_commits);
-        for (String commit : commits) {
-            Commit obj = Utils.readObject(Utils.join(_commits, commit),
-                    Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + obj.getSHA1());
-            String pattern = "EEE MMM d HH:mm:ss yyyy Z";
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern);
-            String date = simpleDateFormat.format(obj.getTimestamp());
-            System.out.println("Date: " + date);
-            System.out.println(obj.getMessage());
-            System.out.println("");
+        globalLog(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Prints at most LIMIT commits of the repository, newest first when the
+     * commit graph gives the timestamps and otherwise in order of SHA1. The
+     * commits are read GLOBAL_LOG_WINDOW at a time, in parallel, and each
+     * window is printed as soon as it has been read, so the first commits
+     * appear at once and memory does not grow with the number of commits.
+     */
+    public void globalLog(int limit) {
+        List<String> order = globalLogOrder();
+        int count = Math.min(limit, order.size());
+        LogEngine engine = new LogEngine(store(), _shallow, limit, false,
+                null);
+        for (int start = 0; start < count; start += GLOBAL_LOG_WINDOW) {
+            List<String> window = order.subList(start,
+                    Math.min(count, start + GLOBAL_LOG_WINDOW));
+            List<Commit> commits = window.parallelStream()
+                    .map(this::readCommit).collect(Collectors.toList());
+            for (int k = 0; k < window.size(); k += 1) {
+                engine.print(window.get(k), commits.get(k));
+            }
+            engine.flush();
         }
     }
 
-    public void find(String commitMsg) {
-        List<String> commits = Utils.plainFilenamesIn(_commits);
-        int count = 0;
-        for (String commit : commits) {
-            Commit obj = Utils.readObject(Utils.join(_commits, commit),
-                    Commit.class);
-            if (obj.getMessage().equals(commitMsg)) {
-                System.out.println(obj.getSHA1());
-                count++;
+    /** Returns the SHA1s of all commits in the order global-log prints
+     *  them: newest first if there is a commit graph, whose timestamps
+     *  spare reading the commits it covers, and otherwise by SHA1. */
+    private List<String> globalLogOrder() {
+        List<String> ids = store().ids(ObjectStore.COMMITS);
+        CommitGraph graph = CommitGraph.read(Main.getGitlet());
+        if (graph == null) {
+            return ids;
+        }
+        Map<String, Long> timestamps = new HashMap<>();
+        List<String> uncovered = new ArrayList<>();
+        for (String id : ids) {
+            int k = graph.find(id);
+            if (k >= 0) {
+                timestamps.put(id, graph.timestamp(k));
+            } else {
+                uncovered.add(id);
             }
         }
-        if (count == 0) {
+        timestamps.putAll(uncovered.parallelStream().collect(
+                Collectors.toMap(id -> id,
+                    id -> readCommit(id).getTimestamp().getTime())));
+        List<String> result = new ArrayList<>(ids);
+        result.sort(Comparator.comparing((String id) -> timestamps.get(id))
+                .reversed().thenComparing(Comparator.naturalOrder()));
+        return result;
+    }
+
+    public void find(String commitMsg) {
+        boolean[] found = {false};
+        messages().find(commitMsg, id -> {
+            System.out.println(id);
+            found[0] = true;
+        });
+        if (!found[0]) {
+            Utils.message("Found no commit with that message.");
+        }
+    }
+
+    /** Prints the SHA1 of every commit whose message contains a match for
+     *  the regular expression REGEX, as each is found. */
+    public void findGrep(String regex) {
+        boolean[] found = {false};
+        try {
+            messages().grep(regex, id -> {
+                System.out.println(id);
+                found[0] = true;
+            });
+        } catch (PatternSyntaxException excp) {
+            Main.errorAndExit("Invalid regular expression.");
+        }
+        if (!found[0]) {
             Utils.message("Found no commit with that message.");
         }
     }
 
     public void status() {
         System.out.println("=== Branches ===");
-        for (Map.Entry branch : _branches.entrySet()) {
-            if (_head.equals(branch.getValue())) {
+        ObjectId head = ObjectId.fromHex(_head);
+        for (Map.Entry<String, ObjectId> branch : _branches.entrySet()) {
+            if (head.equals(branch.getValue())) {
                 System.out.println("*" + branch.getKey());
             } else {
                 System.out.println(branch.getKey());
@@ -353,12 +524,21 @@ public class Repo implements Serializable {
         printModifiedNotStaged();
     }
 
+    /**
+     * Prints the files whose contents differ from those staged or
+     * committed, and those untracked. With a watcher running, looks only
+     * at the files it saw change, those reported last time, and those
+     * whose staged or committed version changed since.
+     */
     public void printModifiedNotStaged() {
-        Commit currCommit = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
+        Commit currCommit = readCommit(_head);
+        Watcher.Changes changes = watcher().changes(_snapshot);
+        Set<String> changed = changedFiles(changes, currCommit);
+        Set<String> reported = new TreeSet<>();
         HashSet<String> untracked = new HashSet<>();
         System.out.println("=== Modifications Not Staged For Commit ===");
-        List<String> filesInCWD = Utils.plainFilenamesIn(_cwd);
+        List<String> filesInCWD = changed == null
+                ? Utils.plainFilenamesIn(_cwd) : plainFilesAmong(changed);
         for (String fileName : filesInCWD) {
             File f = Utils.join(_cwd, fileName);
             if (!currCommit.getBlobs().containsKey(fileName)
@@ -367,31 +547,38 @@ public class Repo implements Serializable {
             } else if (currCommit.getBlobs().containsKey(fileName)) {
                 if (!f.exists() && !_stagedForRemoval.containsKey(fileName)) {
                     System.out.println(fileName + " (deleted)");
+                    reported.add(fileName);
                 }
                 String currContent = Utils.readContentsAsString(f);
-                Blob blob = Utils.readObject(Utils.join(_blobFolder,
-                        currCommit.getBlobs().get(fileName)), Blob.class);
+                Blob blob = readBlob(currCommit.getBlobs().get(fileName));
                 String committedContent = blob.getContent();
                 if (!currContent.equals(committedContent)
                         && !_stagingArea.containsKey(fileName)) {
                     System.out.println(fileName + " (modified) ");
+                    reported.add(fileName);
                 }
             } else if (_stagingArea.containsKey(fileName)) {
-                Blob addedBlob = Utils.readObject(Utils.join(_blobFolder,
-                        _stagingArea.get(fileName)), Blob.class);
+                Blob addedBlob = readBlob(_stagingArea.get(fileName));
                 String addedContent = addedBlob.getContent();
                 if (!f.exists()) {
                     System.out.println(fileName + " (deleted)");
+                    reported.add(fileName);
                 } else if (!Utils.readContentsAsString(f).
                         equals(addedContent)) {
                     System.out.println(fileName + " (modified)");
+                    reported.add(fileName);
                 }
             }
         }
         for (Map.Entry file : currCommit.getBlobs().entrySet()) {
+            if (changed != null && !changed.contains(file.getKey())
+                    || !sparse().contains((String) file.getKey())) {
+                continue;
+            }
             File f = Utils.join(_cwd, (String) file.getKey());
             if (!f.exists() && !_stagedForRemoval.containsKey(file.getKey())) {
                 System.out.println(file.getKey() + " (deleted)");
+                reported.add((String) file.getKey());
             }
         }
         System.out.println("");
@@ -400,6 +587,302 @@ public class Repo implements Serializable {
             System.out.println(fileName);
         }
         System.out.println("");
+        reported.addAll(untracked);
+        _snapshot = changes == null ? null : new Watcher.Snapshot(changes,
+                _head, _stagingArea, _stagedForRemoval, reported);
+    }
+
+    /**
+     * Writes this repo to REPOFILE, after forcing the objects written to
+     * disk if the repo is durable.
+     */
+    public void save(File repoFile) {
+        store().batch().publish(repoFile, Utils.serialize(this));
+        logRefs(new RefLog(Main.getGitlet()));
+    }
+
+    /**
+     * Appends to LOG an entry for the head and for each branch that has
+     * moved since this repo was last read or logged, and removes the logs
+     * of branches that are gone. In a durable repository the entries are
+     * forced to disk together, after the refs they record.
+     */
+    private void logRefs(RefLog log) {
+        String command = Main.getCommand();
+        String oldHead = _loggedHead == null ? "" : _loggedHead;
+        if (!_head.equals(oldHead) || !_activeBranch.equals(_loggedBranch)) {
+            log.append(RefLog.HEAD, oldHead, _head, command);
+        }
+        Map<String, ObjectId> oldBranches = _loggedBranches == null
+                ? Collections.emptyMap() : _loggedBranches;
+        for (Map.Entry<String, ObjectId> branch : _branches.entrySet()) {
+            ObjectId old = oldBranches.get(branch.getKey());
+            if (!branch.getValue().equals(old)) {
+                log.append(branch.getKey(), old == null ? "" : old.toString(),
+                        branch.getValue().toString(), command);
+            }
+        }
+        for (String name : oldBranches.keySet()) {
+            if (!_branches.containsKey(name)) {
+                log.delete(name);
+            }
+        }
+        log.sync();
+        markLogged();
+    }
+
+    /**
+     * Records the refs as they are now as those last logged.
+     */
+    private void markLogged() {
+        _loggedHead = _head;
+        _loggedBranch = _activeBranch;
+        _loggedBranches = new HashMap<>(_branches);
+    }
+
+    /**
+     * Writes this repo to OUT, with its branches as the hexadecimal
+     * numerals of their commits, the form they have always been stored
+     * in, so that earlier versions of Gitlet can still read it.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Map<String, ObjectId> branches = _branches;
+        Map<String, Object> stored = new TreeMap<>();
+        for (Map.Entry<String, ObjectId> branch : branches.entrySet()) {
+            stored.put(branch.getKey(), branch.getValue().toString());
+        }
+        _branches = (Map) stored;
+        try {
+            out.defaultWriteObject();
+        } finally {
+            _branches = branches;
+        }
+    }
+
+    /**
+     * Reads this repo from IN, remembering its refs as read. A repo
+     * written by an earlier version lacks the fields added since, which
+     * are given the values of a new repo. The branches, stored as
+     * numerals, are turned into ObjectIds.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Map<String, Object> stored = (Map) _branches;
+        _branches = new TreeMap<>();
+        for (Map.Entry<String, Object> branch : stored.entrySet()) {
+            _branches.put(branch.getKey(),
+                    ObjectId.fromHex((String) branch.getValue()));
+        }
+        if (_remotes == null) {
+            _remotes = new HashMap<>();
+        }
+        if (_shallow == null) {
+            _shallow = new TreeSet<>();
+        }
+        markLogged();
+    }
+
+    /**
+     * Brings a repo made by an earlier version of Gitlet up to date, by
+     * rewriting its commits in the form they are stored in now and moving
+     * its reflogs to the files that name them now. The next save records
+     * that it was done; until then, it is done again, and finds nothing
+     * left to do.
+     */
+    public void upgrade() {
+        if (_format < 1) {
+            store().upgradeCommits();
+        }
+        if (_format < 2) {
+            new RefLog(Main.getGitlet()).upgrade();
+        }
+        _format = FORMAT;
+    }
+
+    /**
+     * Prints the log of REF, the head if REF is null, newest first: for
+     * each entry, the abbreviated SHA1 the ref moved to, REF@{N}, and the
+     * command that moved it.
+     */
+    public void reflog(String ref) {
+        String name = ref == null ? RefLog.HEAD : ref;
+        if (!name.equals(RefLog.HEAD) && !_branches.containsKey(name)) {
+            Main.errorAndExit("A branch with that name does not exist.");
+        }
+        List<RefLog.Entry> entries =
+                new RefLog(Main.getGitlet()).entries(name);
+        for (int n = 0; n < entries.size(); n += 1) {
+            RefLog.Entry entry = entries.get(n);
+            System.out.println(entry.getNewId().substring(0, 7) + " "
+                    + name + "@{" + n + "}: " + entry.getCommand());
+        }
+    }
+
+    /**
+     * Returns the files checked out.
+     */
+    private SparseCheckout sparse() {
+        if (_sparse == null) {
+            _sparse = SparseCheckout.read(Main.getGitlet());
+        }
+        return _sparse;
+    }
+
+    /**
+     * Prints the patterns of the files checked out, one per line.
+     */
+    public void listSparse() {
+        for (String pattern : sparse().getPatterns()) {
+            System.out.println(pattern);
+        }
+    }
+
+    /**
+     * Checks out only the files of the head commit matching PATTERNS, or
+     * every file if PATTERNS is null: writes those that were left out
+     * before and deletes those left out now. Exits with an error, having
+     * changed nothing, if anything is staged, if a file to be written is
+     * in the way, or if a file to be deleted has changes.
+     */
+    public void sparseCheckout(List<String> patterns) {
+        if (!_stagingArea.isEmpty() || !_stagedForRemoval.isEmpty()) {
+            Main.errorAndExit("You have uncommitted changes.");
+        }
+        SparseCheckout next = null;
+        try {
+            next = new SparseCheckout(patterns);
+        } catch (PatternSyntaxException excp) {
+            Main.errorAndExit("Invalid pattern.");
+        }
+        Map<String, String> toWrite = new TreeMap<>();
+        List<String> toDelete = new ArrayList<>();
+        for (Map.Entry<String, String> e
+                : readCommit(_head).getBlobs().entrySet()) {
+            String name = e.getKey();
+            boolean before = sparse().contains(name);
+            if (before == next.contains(name)) {
+                continue;
+            }
+            File file = Utils.join(_cwd, name);
+            boolean same = file.isFile()
+                    && new Blob(name, Utils.readContentsAsString(file))
+                            .getSHA1().equals(e.getValue());
+            if (!before) {
+                if (file.exists() && !same) {
+                    Main.errorAndExit("There is an untracked file in the "
+                            + "way; delete it, or add and commit it first.");
+                }
+                toWrite.put(name, e.getValue());
+            } else if (file.isFile()) {
+                if (!same) {
+                    Main.errorAndExit("File " + name + " has changes; "
+                            + "commit them first.");
+                }
+                toDelete.add(name);
+            }
+        }
+        for (Map.Entry<String, String> e : toWrite.entrySet()) {
+            writeBlobTo(e.getValue(), Utils.join(_cwd, e.getKey()));
+        }
+        for (String name : toDelete) {
+            Utils.restrictedDelete(Utils.join(_cwd, name));
+        }
+        next.write(Main.getGitlet());
+        _sparse = next;
+    }
+
+    /**
+     * Returns the watcher of the working directory.
+     */
+    private Watcher watcher() {
+        return new Watcher(_cwd, Main.getGitlet());
+    }
+
+    /**
+     * Returns the names of the files in the working directory whose state
+     * may differ from what the last status found, given CHANGES, what the
+     * watcher saw since, and HEAD, the head commit. These are the files
+     * the watcher saw change, those status reported, and those whose
+     * staged or committed version changed since. Returns null if every
+     * file must be looked at: when no watcher is running, or it lost
+     * events, or status has not run since it started.
+     */
+    private Set<String> changedFiles(Watcher.Changes changes, Commit head) {
+        if (changes == null || changes.needsRescan() || _snapshot == null
+                || !store().contains(ObjectStore.COMMITS,
+                        _snapshot.getHead())) {
+            return null;
+        }
+        Set<String> result = new TreeSet<>(_snapshot.getReported());
+        result.addAll(changes.getPaths());
+        if (!_snapshot.getHead().equals(_head)) {
+            result.addAll(head.getFiles().diff(
+                    readCommit(_snapshot.getHead()).getFiles()).keySet());
+        }
+        addDifferences(result, _snapshot.getStaged(), _stagingArea);
+        addDifferences(result, _snapshot.getRemoved(), _stagedForRemoval);
+        return result;
+    }
+
+    /**
+     * Adds to RESULT the names that BEFORE and AFTER map differently.
+     */
+    private static void addDifferences(Set<String> result,
+                                       Map<String, String> before,
+                                       Map<String, String> after) {
+        for (Map.Entry<String, String> e : before.entrySet()) {
+            if (!e.getValue().equals(after.get(e.getKey()))) {
+                result.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!e.getValue().equals(before.get(e.getKey()))) {
+                result.add(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns those of NAMES that are plain files in the working
+     * directory, in order.
+     */
+    private List<String> plainFilesAmong(Set<String> names) {
+        List<String> result = new ArrayList<>();
+        for (String name : new TreeSet<>(names)) {
+            if (Utils.join(_cwd, name).isFile()) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true iff the file NAME may be in the working directory
+     * without being in the head commit, given CHANGED, the result of
+     * changedFiles.
+     */
+    private boolean mayBeUntracked(Set<String> changed, String name) {
+        return changed == null || changed.contains(name)
+                || _stagingArea.containsKey(name);
+    }
+
+    /**
+     * Returns the SHA1 of the commit the branch NAME points to, or null if
+     * there is no such branch.
+     */
+    private String branchHead(String name) {
+        ObjectId id = _branches.get(name);
+        return id == null ? null : id.toString();
+    }
+
+    /**
+     * Makes the branch NAME point to the commit whose SHA1 is COMMITID.
+     */
+    private void setBranch(String name, String commitID) {
+        _branches.put(name, ObjectId.fromHex(commitID));
     }
 
     public void branch(String branchName) {
@@ -407,7 +890,7 @@ public class Repo implements Serializable {
             Utils.message("A branch with that name already exists.");
             System.exit(0);
         }
-        _branches.put(branchName, _head);
+        setBranch(branchName, _head);
     }
 
     public void rmBranch(String branchName) {
@@ -428,96 +911,105 @@ public class Repo implements Serializable {
             Utils.message("No commit with that id exists.");
             System.exit(0);
         }
-        File thisCommit = Utils.join(_commits, completeID);
-        Commit commit = Utils.readObject(thisCommit, Commit.class);
-        Commit head = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
+        Commit commit = readCommit(completeID);
+        Commit head = readCommit(_head);
+        Set<String> changed = changedFiles(watcher().changes(_snapshot), head);
 
         for (Map.Entry blobName : commit.getBlobs().entrySet()) {
-            File file = Utils.join(_cwd, (String) blobName.getKey());
-            if (file.exists()) {
-                if (!head.getBlobs().containsKey(blobName.getKey())) {
-                    Utils.message("There is an untracked file in the "
-                            + "way; delete it, or add and commit it first.");
-                    System.exit(0);
-                }
-                Blob thisBlob = Utils.readObject(Utils.join(_blobFolder,
-                        (String) blobName.getValue()), Blob.class);
-                String newContent = thisBlob.getContent();
-                Utils.writeContents(file, newContent);
-            } else {
-                file.createNewFile();
-                Blob thisBlob = Utils.readObject(Utils.join(_blobFolder,
-                        (String) blobName.getValue()), Blob.class);
-                Utils.writeContents(file, thisBlob.getContent());
+            String name = (String) blobName.getKey();
+            if (!sparse().contains(name)) {
+                continue;
+            }
+            File file = Utils.join(_cwd, name);
+            if (!head.getBlobs().containsKey(name)
+                    && mayBeUntracked(changed, name) && file.exists()) {
+                Utils.message("There is an untracked file in the "
+                        + "way; delete it, or add and commit it first.");
+                System.exit(0);
             }
+            writeBlobTo((String) blobName.getValue(), file);
         }
         List<String> files = Utils.plainFilenamesIn(_cwd);
         for (int i = 0; i < files.size(); i++) {
             File thisFile = Utils.join(_cwd, files.get(i));
             if (head.getBlobs().containsKey(files.get(i))
-                    && !commit.getBlobs().containsKey(files.get(i))) {
+                    && (!commit.getBlobs().containsKey(files.get(i))
+                    || !sparse().contains(files.get(i)))) {
                 Utils.restrictedDelete(thisFile);
             }
         }
         _activeBranch = head.getBranch();
         _stagingArea.clear();
-        _branches.replace(_activeBranch, completeID);
+        _branches.replace(_activeBranch, ObjectId.fromHex(completeID));
         _head = completeID;
     }
 
     public void merge(String otherBranch) throws IOException {
-        boolean hasConflict = false;
         checkMerge(otherBranch);
         String splitPoint = findSplitPoint(otherBranch);
+        if (splitPoint.equals("")) {
+            Main.errorAndExit("No common ancestor in the shallow history; "
+                    + "deepen it first.");
+        }
         if (splitPoint.equals(_head)) {
             checkout(otherBranch, true);
             Main.errorAndExit("Current branch fast-forwarded.");
         }
-        String otherBranchID = _branches.get(otherBranch);
+        String otherBranchID = branchHead(otherBranch);
         if (splitPoint.equals(otherBranchID)) {
             Main.errorAndExit("Given branch is an ancestor of "
                     + "the current branch.");
         }
-        Commit other = Utils.readObject(Utils.join(_commits, otherBranchID),
-                Commit.class);
-        Commit head = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
-        Commit split = Utils.readObject(Utils.join(_commits, splitPoint),
-                Commit.class);
-        Map<String, String> blobsInSplit = split.getBlobs();
-        Map<String, String> blobsInOther = other.getBlobs();
+        Commit other = readCommit(otherBranchID);
+        Commit head = readCommit(_head);
+        Commit split = readCommit(splitPoint);
+        Map<String, String> blobsInSplit = new HashMap<>(split.getBlobs());
+        Map<String, String> blobsInOther = new HashMap<>(other.getBlobs());
         Map<String, String> blobsInHead = head.getBlobs();
-        HashSet<String> allBlobNames =
-                joinSets(blobsInSplit, blobsInHead, blobsInOther);
-        for (String blobName : allBlobNames) {
-            File f = Utils.join(_cwd, blobName);
-            if (blobsInSplit.containsKey(blobName)) {
-                hasConflict = generalMergeCase1(blobName, otherBranchID,
-                        blobsInSplit);
-            } else {
-                if (!blobsInHead.containsKey(blobName)
-                        && blobsInOther.containsKey(blobName)) {
-                    if (f.exists()) {
-                        Main.errorAndExit("There is an "
-                                + "untracked file in the way; delete it, "
-                                + "or add and commit it first.");
-                    }
-                    f.createNewFile();
-                    String newContent = readContentFromBranch(blobName,
-                            otherBranchID);
-                    Utils.writeContents(f, newContent);
-                    add(blobName);
-                } else if (blobsInHead.containsKey(blobName)
-                        && blobsInOther.containsKey(blobName)) {
-                    if (!blobsInHead.get(blobName).
-                            equals(blobsInOther.get(blobName))) {
-                        hasConflict = true;
-                        mergeConflictOne(blobName, otherBranchID);
-                    }
-                }
+        Map<String, String> headRenamed = new HashMap<>(blobsInHead);
+        Map<String, String> renamed = new HashMap<>();
+        Map<String, String> moved = followRenames(blobsInSplit, headRenamed,
+                blobsInOther, renamed);
+        List<String> allBlobNames =
+                new ArrayList<>(joinSets(blobsInSplit, headRenamed,
+                        blobsInOther));
+        Collections.sort(allBlobNames);
+        SparseCheckout sparse = sparse();
+        List<MergeAction> actions = allBlobNames.parallelStream()
+                .map(blobName -> resolveFile(blobName, blobsInSplit,
+                        headRenamed, blobsInOther))
+                .collect(Collectors.toCollection(ArrayList::new));
+        for (int k = 0; k < actions.size(); k += 1) {
+            String name = actions.get(k).getName();
+            if (actions.get(k).getKind() == MergeAction.Kind.KEEP
+                    && !blobsInHead.containsKey(name)
+                    && headRenamed.containsKey(name)) {
+                actions.set(k, takeOther(name, headRenamed.get(name)));
+            }
+        }
+        for (String old : moved.keySet()) {
+            actions.add(new MergeAction(old, MergeAction.Kind.REMOVE,
+                    blobsInHead.get(old)));
+        }
+        Set<String> changed = changedFiles(watcher().changes(_snapshot), head);
+        for (MergeAction action : actions) {
+            if (action.getKind() == MergeAction.Kind.TAKE_OTHER
+                    && sparse.contains(action.getName())
+                    && !blobsInHead.containsKey(action.getName())
+                    && mayBeUntracked(changed, action.getName())
+                    && Utils.join(_cwd, action.getName()).exists()) {
+                Main.errorAndExit("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
         }
+        List<String> staged = actions.parallelStream()
+                .map(action -> writeMergeResult(action, sparse, renamed))
+                .collect(Collectors.toList());
+        boolean hasConflict = false;
+        for (int k = 0; k < actions.size(); k += 1) {
+            applyMergeAction(actions.get(k), staged.get(k), blobsInHead);
+            hasConflict |= actions.get(k).isConflict();
+        }
         String commitMsg = "Merged " + otherBranch + " into "
                 + _activeBranch + ".";
         if (hasConflict) {
@@ -526,6 +1018,66 @@ public class Repo implements Serializable {
         commit(commitMsg, otherBranchID);
     }
 
+    /**
+     * Lines up the files renamed since the split point on either side of a
+     * merge, so that the edits made on one side follow a file renamed on
+     * the other. SPLIT, HEAD and OTHER map the file names at the split
+     * point, the head and the other branch to blobs. A file renamed on one
+     * side only is renamed to match on the other side and at the split
+     * point, and one renamed alike on both sides is renamed at the split
+     * point. The blobs under the new names are not written, but recorded
+     * in RENAMED, from their SHA1s to those of the blobs they copy, so
+     * that only those the merge stages are written, once it goes ahead.
+     * Returns the files the head has to move, from their old names to
+     * their new ones.
+     */
+    private Map<String, String> followRenames(Map<String, String> split,
+                                              Map<String, String> head,
+                                              Map<String, String> other,
+                                              Map<String, String> renamed) {
+        RenameDetector detector = new RenameDetector(Main.getGitlet(),
+                id -> readBlob(id).getContent());
+        Map<String, String> inHead = detector.detect(split, head);
+        Map<String, String> inOther = detector.detect(split, other);
+        Map<String, String> moved = new TreeMap<>();
+        for (String old : new TreeSet<>(split.keySet())) {
+            String headName = inHead.get(old);
+            String otherName = inOther.get(old);
+            if (headName != null && otherName != null) {
+                if (headName.equals(otherName)) {
+                    renameBlob(split, old, headName, renamed);
+                }
+            } else if (headName != null && !other.containsKey(headName)) {
+                renameBlob(split, old, headName, renamed);
+                renameBlob(other, old, headName, renamed);
+            } else if (otherName != null && !head.containsKey(otherName)) {
+                renameBlob(split, old, otherName, renamed);
+                if (head.containsKey(old)) {
+                    moved.put(old, otherName);
+                }
+                renameBlob(head, old, otherName, renamed);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Moves the file OLD in FILES, if it is there, to the name NAME, under
+     * the SHA1 its blob has under that name, which it records in RENAMED
+     * without writing the blob.
+     */
+    private void renameBlob(Map<String, String> files, String old,
+                            String name, Map<String, String> renamed) {
+        String id = files.remove(old);
+        if (id != null) {
+            String source = renamed.getOrDefault(id, id);
+            String newID = new Blob(name, readBlob(source).getContent())
+                    .getSHA1();
+            renamed.put(newID, source);
+            files.put(name, newID);
+        }
+    }
+
     public void checkMerge(String otherBranch) {
         if (!_stagingArea.isEmpty() || !_stagedForRemoval.isEmpty()) {
             Utils.message("You have uncommitted changes.");
@@ -539,48 +1091,69 @@ public class Repo implements Serializable {
         }
     }
 
-    public boolean generalMergeCase1(String blobName, String otherBranchID,
-                                     Map<String, String> blobsInSplit)
-            throws IOException {
-        boolean hasConflict = false;
-        Commit other = Utils.readObject(Utils.join(_commits, otherBranchID),
-                Commit.class);
-        Commit head = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
-        Map<String, String> blobsInOther = other.getBlobs();
-        Map<String, String> blobsInHead = head.getBlobs();
+    /**
+     * Returns the merge action for BLOBNAME given the versions tracked at the
+     * split point, the head and the other branch (BLOBSINSPLIT, BLOBSINHEAD
+     * and BLOBSINOTHER). Only compares SHA1s, so it may be called for many
+     * files at once.
+     */
+    public MergeAction resolveFile(String blobName,
+                                   Map<String, String> blobsInSplit,
+                                   Map<String, String> blobsInHead,
+                                   Map<String, String> blobsInOther) {
+        if (blobsInSplit.containsKey(blobName)) {
+            return generalMergeCase1(blobName, blobsInSplit, blobsInHead,
+                    blobsInOther);
+        } else if (!blobsInHead.containsKey(blobName)) {
+            return takeOther(blobName, blobsInOther.get(blobName));
+        } else if (blobsInOther.containsKey(blobName)
+                && !blobsInHead.get(blobName).
+                        equals(blobsInOther.get(blobName))) {
+            return mergeConflict(blobName, blobsInHead.get(blobName),
+                    blobsInOther.get(blobName));
+        }
+        return MergeAction.keep(blobName);
+    }
+
+    /**
+     * Returns the action that takes the blob OTHERID as the file BLOBNAME.
+     */
+    private MergeAction takeOther(String blobName, String otherID) {
+        return new MergeAction(blobName, MergeAction.Kind.TAKE_OTHER,
+                otherID);
+    }
 
+    public MergeAction generalMergeCase1(String blobName,
+                                         Map<String, String> blobsInSplit,
+                                         Map<String, String> blobsInHead,
+                                         Map<String, String> blobsInOther) {
         String[] result = determineStatus(blobName,
                 blobsInSplit.get(blobName), blobsInOther, blobsInHead);
         String modifyStatusHead = result[0];
         String modifyStatusOther = result[1];
+        String headID = blobsInHead.get(blobName);
+        String otherID = blobsInOther.get(blobName);
         if (modifyStatusHead.equals("same")) {
             if (modifyStatusOther.equals("changed")) {
-                checkout(otherBranchID, blobName);
-                add(blobName);
+                return takeOther(blobName, otherID);
             } else if (modifyStatusOther.equals("absent")) {
-                rm(blobName);
+                return new MergeAction(blobName, MergeAction.Kind.REMOVE,
+                        headID);
             }
         } else if (modifyStatusHead.equals("changed")) {
             if (modifyStatusOther.equals("changed")) {
-                if (!blobsInHead.get(blobName).
-                        equals(blobsInOther.get(blobName))) {
-                    mergeConflictOne(blobName, otherBranchID);
-                    hasConflict = true;
+                if (!headID.equals(otherID)) {
+                    return mergeConflict(blobName, headID, otherID);
                 }
             } else if (modifyStatusOther.equals("absent")) {
-                hasConflict = true;
-                mergeConflictTwo(blobName, otherBranchID,
-                        "other");
+                return mergeConflict(blobName, headID, null);
             }
         } else if (modifyStatusHead.equals("absent")) {
             if (modifyStatusOther.equals("changed")) {
-                hasConflict = true;
-                mergeConflictTwo(blobName, otherBranchID,
-                        "head");
+                return mergeConflict(blobName, null, otherID);
             }
         }
-        return hasConflict;
+        return MergeAction.keep(blobName);
     }
 
     public String[] determineStatus(String blobName, String blobIDAtSplit,
@@ -635,111 +1208,113 @@ public class Repo implements Serializable {
      * that name exists at that commitID.
      */
     public String readContentFromBranch(String filename, String commitID) {
-        Commit branch = Utils.readObject(Utils.join(_commits, commitID),
-                Commit.class);
+        Commit branch = readCommit(commitID);
         String blobID = branch.getBlobs().get(filename);
-        Blob blob = Utils.readObject(Utils.join(_blobFolder, blobID),
-                Blob.class);
-        return blob.getContent();
+        return readBlob(blobID).getContent();
     }
 
-    public void mergeConflictOne(String filename, String otherBranchID)
-            throws IOException {
-        Commit head = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
-        Commit other = Utils.readObject(Utils.join(_commits, otherBranchID),
-                Commit.class);
-        File f = Utils.join(_cwd, filename);
-
-        String headVersionID = head.getBlobs().get(filename);
-        String otherVersionID = other.getBlobs().get(filename);
-        Blob headVersion = Utils.readObject(Utils.join(_blobFolder,
-                headVersionID), Blob.class);
-        Blob otherVersion = Utils.readObject(Utils.join(_blobFolder,
-                otherVersionID), Blob.class);
-
-        String headContent = headVersion.getContent();
-        String otherContent = otherVersion.getContent();
-        String newContent = "<<<<<<< HEAD\n" + headContent + "=======\n"
-                + otherContent + ">>>>>>>\n";
-
-        Utils.writeContents(f, newContent);
-        add(filename);
-    }
-
-    public void mergeConflictTwo(String filename, String otherBranchID,
-                                 String absentOne) throws IOException {
-        Commit head = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
-        Commit other = Utils.readObject(Utils.join(_commits, otherBranchID),
-                Commit.class);
-        File f = Utils.join(_cwd, filename);
-        String newContent;
-
-        if (absentOne.equals("head")) {
-            f.createNewFile();
-            String otherVersionID = other.getBlobs().get(filename);
-            Blob otherVersion = Utils.readObject(Utils.join(_blobFolder,
-                    otherVersionID), Blob.class);
-            String otherContent = otherVersion.getContent();
-            newContent = "<<<<<<< HEAD\n" + "=======\n" + otherContent
-                    + ">>>>>>>\n";
-        } else {
-            String headVersionID = head.getBlobs().get(filename);
-            Blob headVersion = Utils.readObject(Utils.join(_blobFolder,
-                    headVersionID), Blob.class);
-            String headContent = headVersion.getContent();
-            newContent = "<<<<<<< HEAD\n" + headContent + "=======\n"
-                    + ">>>>>>>\n";
-        }
-
-        Utils.writeContents(f, newContent);
-        add(filename);
+    /**
+     * Returns a conflict on FILENAME between the blobs HEADVERSIONID and
+     * OTHERVERSIONID, either of which is null if the file is absent on that
+     * side. The blob holding the conflict markers is made only when the
+     * conflict is written.
+     */
+    public MergeAction mergeConflict(String filename, String headVersionID,
+                                     String otherVersionID) {
+        return MergeAction.conflict(filename, headVersionID, otherVersionID);
     }
 
-    public String findSplitPoint(String otherBranch) {
-        String otherID = _branches.get(otherBranch);
-        Queue<String> fringe = new ArrayDeque<>();
-        fringe.add(otherID);
-        HashSet<String> ancestors = new HashSet<>();
-        String splitPoint = "";
-        while (!fringe.isEmpty()) {
-            String commitID = fringe.poll();
-            if (!ancestors.contains(commitID)) {
-                ancestors.add(commitID);
-                Commit thisCommit = Utils.readObject(Utils.join(_commits,
-                        commitID), Commit.class);
-                if (!thisCommit.getParent().equals("")) {
-                    fringe.add(thisCommit.getParent());
-                }
-                if (!thisCommit.getSecondParent().equals("")) {
-                    fringe.add(thisCommit.getSecondParent());
-                }
+    /**
+     * Writes what ACTION leaves in the working directory: the blob it
+     * takes, if the file is checked out in SPARSE, or the conflict
+     * markers, whose blob it also writes. A blob RENAMED by followRenames
+     * is read from the blob it copies, and written if it is staged.
+     * Returns the SHA1 of the blob ACTION stages, or null if it stages
+     * none. Touches only its own file
+     * and the store, and holds only that file, so it may be called for
+     * many actions at once; it is called only once the merge is known to
+     * go ahead, so that an aborted merge writes nothing.
+     */
+    private String writeMergeResult(MergeAction action,
+                                    SparseCheckout sparse,
+                                    Map<String, String> renamed) {
+        File f = Utils.join(_cwd, action.getName());
+        switch (action.getKind()) {
+        case TAKE_OTHER:
+            String id = action.getBlobID();
+            String source = renamed.getOrDefault(id, id);
+            if (!source.equals(id)) {
+                writeBlob(new Blob(action.getName(),
+                        readBlob(source).getContent()));
             }
+            if (sparse.contains(action.getName())) {
+                writeBlobTo(source, f);
+            }
+            return id;
+        case CONFLICT:
+            String headContent = "";
+            if (action.getHeadID() != null) {
+                headContent = readBlob(renamed.getOrDefault(
+                        action.getHeadID(), action.getHeadID()))
+                        .getContent();
+            }
+            String otherContent = "";
+            if (action.getOtherID() != null) {
+                otherContent = readBlob(renamed.getOrDefault(
+                        action.getOtherID(), action.getOtherID()))
+                        .getContent();
+            }
+            String newContent = "<<<<<<< HEAD\n" + headContent + "=======\n"
+                    + otherContent + ">>>>>>>\n";
+            Blob newBlob = new Blob(action.getName(), newContent);
+            writeBlob(newBlob);
+            Utils.writeContents(f, newContent);
+            return newBlob.getSHA1();
+        default:
+            return null;
         }
+    }
 
-        fringe.add(_head);
-        HashSet<String> visited = new HashSet<>();
+    /**
+     * Applies ACTION, whose files writeMergeResult has written, to the
+     * staging area, staging STAGED, and removes the file of a REMOVE
+     * action. BLOBSINHEAD are the blobs tracked by the current head.
+     */
+    public void applyMergeAction(MergeAction action, String staged,
+                                 Map<String, String> blobsInHead) {
+        File f = Utils.join(_cwd, action.getName());
+        switch (action.getKind()) {
+        case TAKE_OTHER:
+        case CONFLICT:
+            _stagingArea.put(action.getName(), staged);
+            break;
+        case REMOVE:
+            _stagedForRemoval.put(action.getName(),
+                    blobsInHead.get(action.getName()));
+            Utils.restrictedDelete(f);
+            break;
+        default:
+            break;
+        }
+    }
+
+    public String findSplitPoint(String otherBranch) {
+        ObjectIdSet ancestors = ancestry(branchHead(otherBranch));
+        ObjectIdSet shallow = shallowIds();
+        Queue<ObjectId> fringe = new ArrayDeque<>();
+        fringe.add(ObjectId.fromHex(_head));
+        ObjectIdSet visited = new ObjectIdSet();
         while (!fringe.isEmpty()) {
-            String commitID = fringe.poll();
-            Commit currCommit = Utils.readObject(Utils.join(_commits,
-                    commitID), Commit.class);
-            if (!visited.contains(commitID)) {
-                visited.add(commitID);
+            ObjectId commitID = fringe.poll();
+            if (visited.add(commitID)) {
                 if (ancestors.contains(commitID)) {
-                    splitPoint = commitID;
-                    break;
-                } else {
-                    if (!currCommit.getParent().equals("")) {
-                        fringe.add(currCommit.getParent());
-                    }
-                    if (!currCommit.getSecondParent().equals("")) {
-                        fringe.add(currCommit.getSecondParent());
-                    }
+                    return commitID.toString();
+                } else if (!shallow.contains(commitID)) {
+                    addParents(readCommit(commitID.toString()), fringe);
                 }
             }
         }
-        return splitPoint;
+        return "";
     }
 
     public void addRemote(String remoteName, String path) {
@@ -756,6 +1331,10 @@ public class Repo implements Serializable {
         if (!_remotes.containsKey(remoteName)) {
             Utils.message("A remote with that name does not exist.");
             System.exit(0);
+        } else if (remoteName.equals(_promisor)) {
+            Utils.message("Cannot remove the remote that promises "
+                    + "missing blobs.");
+            System.exit(0);
         }
         _remotes.remove(remoteName);
     }
@@ -764,82 +1343,258 @@ public class Repo implements Serializable {
             throws IOException {
         checkRemoteValid(remoteName, remoteBranchName);
         File remoteDir = new File(_remotes.get(remoteName));
-        File commitsFolder = Utils.join(remoteDir, "/commits");
         File repoFile = Utils.join(remoteDir, "/repo");
         Repo repo = Utils.readObject(repoFile, Repo.class);
-        Commit currCommit = Utils.readObject(Utils.join(_commits, _head),
-                Commit.class);
-
-        if (repo._branches.containsKey(remoteBranchName)) {
-            String remoteID = repo._branches.get(remoteBranchName);
-            while (!currCommit.getSHA1().equals(remoteID)) {
-                File newCommit = Utils.join(commitsFolder, "/"
-                        + currCommit.getSHA1());
-                newCommit.createNewFile();
-                Utils.writeObject(newCommit, currCommit);
-                currCommit = Utils.readObject(Utils.join(_commits,
-                        currCommit.getParent()), Commit.class);
-            }
-        } else {
-            repo._branches.put(remoteBranchName, _head);
-            String commitID = _head;
-            while (!commitID.equals("")) {
-                currCommit = Utils.readObject(Utils.join(_commits, commitID),
-                        Commit.class);
-                File newCommit = Utils.join(commitsFolder, "/"
-                        + currCommit.getSHA1());
-                newCommit.createNewFile();
-                Utils.writeObject(newCommit, currCommit);
-                commitID = currCommit.getParent();
-            }
-        }
-        repo._branches.replace(remoteBranchName, _head);
+        checkSameHash(remoteDir);
+        ObjectStore remote = new ObjectStore(remoteDir);
+        Map<String, Integer> tips = new LinkedHashMap<>();
+        tips.put(_head, Integer.MAX_VALUE);
+        Set<String> cutOff = new HashSet<>();
+        Map<String, List<String>> missing =
+                missingObjects(store(), remote, tips, null, _shallow, cutOff);
+        if (!cutOff.isEmpty()) {
+            Main.errorAndExit("Cannot push from a shallow repository; "
+                    + "deepen it first.");
+        }
+        for (String blobID : missing.get(ObjectStore.BLOBS)) {
+            fetchPromised(blobID);
+        }
+        missing.put(ObjectStore.CHUNKS, missingChunks(store(), remote,
+                missing.get(ObjectStore.BLOBS)));
+        new ObjectCopier(store(), remote).copy(missing);
+        new MessageIndex(remote).addAll(missing.get(ObjectStore.COMMITS));
+        repo.setBranch(remoteBranchName, _head);
         repo._head = _head;
-        Utils.writeObject(repoFile, repo);
+        remote.batch().publish(repoFile, Utils.serialize(repo));
+        repo.logRefs(new RefLog(remoteDir));
     }
 
     public void fetch(String remoteName, String remoteBranchName)
             throws IOException {
+        fetch(remoteName, remoteBranchName, Integer.MAX_VALUE, null, 0,
+                false);
+    }
+
+    /**
+     * Fetches REMOTEBRANCHNAME from the remote REMOTENAME, keeping only the
+     * newest DEPTH generations of new history and leaving out commits made
+     * before SINCE, if it is not null. Commits whose parents are left out
+     * are recorded as shallow. If DEEPEN is positive, the history behind
+     * the current shallow commits is also extended by DEEPEN generations.
+     * If BLOBLESS, only commits are copied, and the remote becomes the
+     * promisor that missing blobs are fetched from when first read.
+     */
+    public void fetch(String remoteName, String remoteBranchName, int depth,
+                      Date since, int deepen, boolean blobless)
+            throws IOException {
         File remoteDir = new File(_remotes.get(remoteName));
         if (!remoteDir.exists()) {
             Main.errorAndExit("Remote directory not found.");
         }
         File repoFile = Utils.join(remoteDir, "/repo");
-        File remoteCommits = Utils.join(remoteDir, "/commits");
-        File remoteBlobs = Utils.join(remoteDir, "/blobs");
         Repo repo = Utils.readObject(repoFile, Repo.class);
+        checkSameHash(remoteDir);
         if (!repo._branches.containsKey(remoteBranchName)) {
             Main.errorAndExit("That remote does not "
                     + "have that branch.");
         }
         String newBranchName = remoteName + "/" + remoteBranchName;
-        String commitID = repo._branches.get(remoteBranchName);
+        String commitID = repo.branchHead(remoteBranchName);
         if (!_branches.containsKey(newBranchName)) {
             branch(newBranchName);
         }
+        Map<String, Integer> tips = new LinkedHashMap<>();
+        tips.put(commitID, depth);
+        if (deepen > 0) {
+            for (String shallow : _shallow) {
+                tips.put(shallow, deepen + 1);
+            }
+        }
+        ObjectStore remote = new ObjectStore(remoteDir);
+        Set<String> cutOff = new HashSet<>();
+        Map<String, List<String>> missing = missingObjects(remote, store(),
+                tips, since, repo._shallow, cutOff);
+        if (blobless) {
+            missing.put(ObjectStore.BLOBS, new ArrayList<>());
+            _promisor = remoteName;
+        }
+        missing.put(ObjectStore.CHUNKS, missingChunks(remote, store(),
+                missing.get(ObjectStore.BLOBS)));
+        List<String> fetched = new ArrayList<>(missing.get(
+                ObjectStore.COMMITS));
+        /* The parents of a shallow commit stay behind, so it is written
+         * with all of its blobs rather than as changes against them. */
+        for (String shallow : cutOff) {
+            if (missing.get(ObjectStore.COMMITS).remove(shallow)) {
+                store().writeCommit(shallow,
+                        remote.readCommit(shallow).checkpoint());
+            }
+        }
+        ObjectCopier copier = new ObjectCopier(remote, store());
+        copier.copy(missing);
+        System.out.println(copier.report());
+        messages().addAll(fetched);
+        Set<String> wasShallow = new HashSet<>(_shallow);
+        updateShallow(cutOff);
+        refreshGraph(wasShallow, fetched);
+        setBranch(newBranchName, commitID);
+    }
+
+    /**
+     * Rewrites the commit graph, if there is one, when the commits FETCHED
+     * include a parent of one of WASSHALLOW, the commits that were shallow
+     * before the fetch. The graph recorded that parent as missing, so the
+     * generations it gives that commit and everything after it are too
+     * low until it is rewritten.
+     */
+    private void refreshGraph(Set<String> wasShallow, List<String> fetched) {
+        if (!Utils.join(Main.getGitlet(), CommitGraph.GRAPH_FILE).isFile()) {
+            return;
+        }
+        Set<String> arrived = new HashSet<>(fetched);
+        for (String commitID : wasShallow) {
+            Commit commit = readCommit(commitID);
+            if (arrived.contains(commit.getParent())
+                    || arrived.contains(commit.getSecondParent())) {
+                CommitGraph.write(store());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Exits with an error unless the repo whose .gitlet folder is REMOTEDIR
+     * names its objects with the same hash algorithm as this one.
+     */
+    private void checkSameHash(File remoteDir) {
+        if (HashAlgorithm.read(remoteDir) != HashAlgorithm.current()) {
+            Main.errorAndExit("The remote names its objects with another "
+                    + "hash algorithm.");
+        }
+    }
+
+    /**
+     * Returns the chunks of the chunked blobs among BLOBS, which FROM has,
+     * that TO lacks.
+     */
+    private List<String> missingChunks(ObjectStore from, ObjectStore to,
+                                       List<String> blobs) {
+        Set<String> have = to.idSet(ObjectStore.CHUNKS);
+        Set<String> result = new LinkedHashSet<>();
+        for (String blobID : blobs) {
+            for (String chunk : from.chunks(blobID)) {
+                if (!have.contains(chunk)) {
+                    result.add(chunk);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Adds the commits in CUTOFF to the shallow commits, and drops any
+     * shallow commit whose parents are all present now.
+     */
+    public void updateShallow(Set<String> cutOff) {
+        _shallow.addAll(cutOff);
+        if (_shallow.isEmpty()) {
+            return;
+        }
+        Set<String> present = store().idSet(ObjectStore.COMMITS);
+        for (String commitID : new ArrayList<>(_shallow)) {
+            Commit commit = readCommit(commitID);
+            if ((commit.getParent().equals("")
+                    || present.contains(commit.getParent()))
+                    && (commit.getSecondParent().equals("")
+                    || present.contains(commit.getSecondParent()))) {
+                _shallow.remove(commitID);
+            }
+        }
+    }
 
-        while (!commitID.equals("")) {
-            Commit currCommit = Utils.readObject(Utils.join(remoteCommits,
-                    "/" + commitID), Commit.class);
-            File hereCommit = Utils.join(_commits, currCommit.getSHA1());
-            if (!hereCommit.exists()) {
-                hereCommit.createNewFile();
-                Utils.writeObject(hereCommit, currCommit);
-                for (Map.Entry blob: currCommit.getBlobs().entrySet()) {
-                    File hereBlob = Utils.join(_blobFolder,
-                            (String) blob.getValue());
-                    if (!hereBlob.exists()) {
-                        hereBlob.createNewFile();
-                        Blob remoteBlob = Utils.readObject(Utils.
-                                join(remoteBlobs, "/"
-                                        + blob.getValue()), Blob.class);
-                        Utils.writeObject(hereBlob, remoteBlob);
+    /**
+     * Returns the objects that TO lacks among the commits reachable from
+     * the TIPS in FROM, through both parents, and the blobs they track. The
+     * result maps each kind of object to the SHA1s of the missing objects
+     * of that kind. A commit TO already has is assumed to come with its
+     * whole history, so the walk stops there, unless it is one of the TIPS.
+     * TIPS maps each starting commit to the number of generations to walk
+     * from it, counting itself. Commits made before SINCE, if it is not
+     * null, are left out, and the walk never goes past FROMSHALLOW, the
+     * shallow commits of FROM. Every commit whose parents are left out is
+     * added to CUTOFF. What TO has is listed once up front rather than
+     * looked up object by object, and the commits of each generation of
+     * the walk are read from FROM in parallel.
+     */
+    public Map<String, List<String>> missingObjects(ObjectStore from,
+                                                    ObjectStore to,
+                                                    Map<String, Integer> tips,
+                                                    Date since,
+                                                    Set<String> fromShallow,
+                                                    Set<String> cutOff) {
+        Set<String> haveCommits = to.idSet(ObjectStore.COMMITS);
+        Set<String> haveBlobs = to.idSet(ObjectStore.BLOBS);
+        List<String> commits = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        Map<String, Integer> budget = new HashMap<>(tips);
+        Map<String, String[]> parentsOf = new HashMap<>();
+        List<String> generation = new ArrayList<>(tips.keySet());
+        while (!generation.isEmpty()) {
+            List<String> wanted = new ArrayList<>();
+            for (String commitID : generation) {
+                if (!commitID.equals("") && seen.add(commitID)
+                        && (!haveCommits.contains(commitID)
+                        || tips.containsKey(commitID))) {
+                    wanted.add(commitID);
+                }
+            }
+            List<Commit> read = wanted.parallelStream()
+                    .map(from::readCommit).collect(Collectors.toList());
+            generation = new ArrayList<>();
+            for (int k = 0; k < wanted.size(); k += 1) {
+                String commitID = wanted.get(k);
+                Commit commit = read.get(k);
+                if (since != null && !tips.containsKey(commitID)
+                        && commit.getTimestamp().before(since)) {
+                    continue;
+                }
+                if (!haveCommits.contains(commitID)) {
+                    commits.add(commitID);
+                    for (String blobID : commit.getFiles().blobs()) {
+                        if (seen.add(blobID)
+                                && !haveBlobs.contains(blobID)) {
+                            blobs.add(blobID);
+                        }
+                    }
+                }
+                String[] parents = {commit.getParent(),
+                    commit.getSecondParent()};
+                parentsOf.put(commitID, parents);
+                if (budget.get(commitID) <= 1
+                        || fromShallow.contains(commitID)) {
+                    continue;
+                }
+                for (String parent : parents) {
+                    if (!parent.equals("")) {
+                        budget.putIfAbsent(parent, budget.get(commitID) - 1);
+                        generation.add(parent);
                     }
                 }
             }
-            commitID = currCommit.getParent();
         }
-        _branches.put(newBranchName, repo._branches.get(remoteBranchName));
+        for (Map.Entry<String, String[]> entry : parentsOf.entrySet()) {
+            for (String parent : entry.getValue()) {
+                if (!parent.equals("") && !parentsOf.containsKey(parent)
+                        && !haveCommits.contains(parent)) {
+                    cutOff.add(entry.getKey());
+                }
+            }
+        }
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        result.put(ObjectStore.COMMITS, commits);
+        result.put(ObjectStore.BLOBS, blobs);
+        return result;
     }
 
     public void pull(String remoteName, String remoteBranchName)
@@ -855,10 +1610,10 @@ public class Repo implements Serializable {
             Main.errorAndExit("Remote directory not found.");
         } else {
             File repoFile = Utils.join(remoteDir, "/repo");
-            HashSet<String> history = findHistory(_head);
+            ObjectIdSet history = ancestry(_head);
             Repo repo = Utils.readObject(repoFile, Repo.class);
-            if (repo._branches.containsKey(remoteBranchName)) {
-                String commitID = repo._branches.get(remoteBranchName);
+            ObjectId commitID = repo._branches.get(remoteBranchName);
+            if (commitID != null) {
                 if (!history.contains(commitID)) {
                     Main.errorAndExit("Please pull down remote "
                             + "changes before pushing.");
@@ -867,35 +1622,356 @@ public class Repo implements Serializable {
         }
     }
 
+    /**
+     * Removes the reflog entries more than EXPIRY milliseconds old, then
+     * deletes the loose objects that cannot be reached from any branch,
+     * remote-tracking branch, the head, a remaining reflog entry or the
+     * staging area, and that were last written more than GRACE
+     * milliseconds ago. The grace period is what makes this safe while
+     * other commands run: an object they have just written, or found
+     * already present, is young even if nothing refers to it yet. Packed
+     * objects are left for repack.
+     */
+    public void gc(long grace, long expiry) {
+        new RefLog(Main.getGitlet())
+                .expire(System.currentTimeMillis() - expiry);
+        Map<String, Set<String>> reachable = reachableObjects();
+        long cutoff = System.currentTimeMillis() - grace;
+        long objects = 0;
+        long bytes = 0;
+        for (String kind : ObjectStore.KINDS) {
+            File dir = Utils.join(Main.getGitlet(), kind);
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File f = Utils.join(dir, name);
+                long length = f.length();
+                if (!reachable.get(kind).contains(name)
+                        && f.lastModified() < cutoff && f.delete()) {
+                    objects += 1;
+                    bytes += length;
+                }
+            }
+        }
+        File sketchDir = Utils.join(Main.getGitlet(),
+                RenameDetector.SKETCH_DIR);
+        List<String> sketches = Utils.plainFilenamesIn(sketchDir);
+        if (sketches != null) {
+            for (String name : sketches) {
+                File f = Utils.join(sketchDir, name);
+                long length = f.length();
+                if (!reachable.get(ObjectStore.BLOBS).contains(name)
+                        && f.lastModified() < cutoff && f.delete()) {
+                    bytes += length;
+                }
+            }
+        }
+        List<String> packFiles = Utils.plainFilenamesIn(store().packDir());
+        if (packFiles != null) {
+            for (String name : packFiles) {
+                File f = Utils.join(store().packDir(), name);
+                long length = f.length();
+                if (name.startsWith("tmp-") && f.lastModified() < cutoff
+                        && f.delete()) {
+                    bytes += length;
+                }
+            }
+        }
+        Utils.message("Removed %d unreachable objects, reclaimed %d bytes.",
+                objects, bytes);
+    }
+
+    /**
+     * Moves every object, loose or packed, into a single new pack and
+     * deletes the loose objects and the old packs. Reachable commits come
+     * first, newest first, so that log reads the front of the pack in
+     * order; then blobs grouped by file name, newest version first; then
+     * whatever is unreachable. The new pack is complete and indexed before
+     * anything is deleted, and readers that lose an object to the repack
+     * look it up again, so other commands may run meanwhile. Prints how
+     * long reading every object took before and after.
+     */
+    public void repack() {
+        List<ObjectStore.Location> order = repackOrder();
+        if (order.isEmpty()) {
+            Utils.message("Nothing to repack.");
+            return;
+        }
+        long before = timeReads(order);
+        List<Pack> oldPacks = new ArrayList<>(store().packs());
+        ExecutorService pool = ObjectCopier.newExecutor();
+        File tmp;
+        try {
+            tmp = Pack.write(store().packDir(), order, pool);
+        } finally {
+            pool.shutdown();
+        }
+        Pack pack = Pack.index(tmp);
+        store().batch().add(pack.getFile());
+        store().batch().add(Pack.indexFile(pack.getFile()));
+        store().batch().sync();
+        CommitGraph.write(store());
+        for (ObjectStore.Location loc : order) {
+            if (loc._offset == 0 && loc._file.getParentFile().getName()
+                    .equals(loc._kind)) {
+                loc._file.delete();
+            }
+        }
+        for (Pack old : oldPacks) {
+            if (!old.getFile().equals(pack.getFile())) {
+                Pack.indexFile(old.getFile()).delete();
+                old.getFile().delete();
+            }
+        }
+        _store = null;
+        long after = timeReads(order);
+        Utils.message("Packed %d objects into %s.", order.size(),
+                pack.getFile().getName());
+        Utils.message("Read %d objects: %d ms before repack, %d ms after.",
+                order.size(), before, after);
+    }
+
+    /** Returns where every object is kept now, in the order repack writes
+     *  them. */
+    private List<ObjectStore.Location> repackOrder() {
+        Set<String> reachable = new HashSet<>();
+        for (String tip : tips()) {
+            reachable.addAll(findHistory(tip));
+        }
+        Map<String, Commit> commits = reachable.parallelStream()
+                .filter(id -> store().contains(ObjectStore.COMMITS, id))
+                .collect(Collectors.toMap(id -> id, this::readCommit));
+        List<String> commitOrder = new ArrayList<>(commits.keySet());
+        commitOrder.sort(Comparator.comparing(
+                (String id) -> commits.get(id).getTimestamp()).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        Map<String, Set<String>> byName = new TreeMap<>();
+        for (String commitID : commitOrder) {
+            for (Map.Entry<String, String> e
+                    : commits.get(commitID).getBlobs().entrySet()) {
+                byName.computeIfAbsent(e.getKey(), k -> new LinkedHashSet<>())
+                        .add(e.getValue());
+            }
+        }
+        Map<String, Collection<String>> order = new LinkedHashMap<>();
+        Set<String> blobOrder = new LinkedHashSet<>();
+        for (Set<String> versions : byName.values()) {
+            blobOrder.addAll(versions);
+        }
+        Set<String> presentBlobs = store().idSet(ObjectStore.BLOBS);
+        Set<String> chunkOrder = new LinkedHashSet<>();
+        for (String blobID : blobOrder) {
+            if (presentBlobs.contains(blobID)) {
+                chunkOrder.addAll(store().chunks(blobID));
+            }
+        }
+        order.put(ObjectStore.COMMITS, commitOrder);
+        order.put(ObjectStore.BLOBS, blobOrder);
+        order.put(ObjectStore.CHUNKS, chunkOrder);
+        List<ObjectStore.Location> result = new ArrayList<>();
+        for (String kind : ObjectStore.KINDS) {
+            Set<String> present = store().idSet(kind);
+            for (String id : order.get(kind)) {
+                if (present.remove(id)) {
+                    result.add(store().locate(kind, id));
+                }
+            }
+            for (String id : new TreeSet<>(present)) {
+                result.add(store().locate(kind, id));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of milliseconds taken to read the objects at
+     *  LOCS, in order, with a store that has read nothing yet. */
+    private long timeReads(List<ObjectStore.Location> locs) {
+        ObjectStore fresh = new ObjectStore(Main.getGitlet());
+        long start = System.nanoTime();
+        for (ObjectStore.Location loc : locs) {
+            fresh.readRaw(loc._kind, loc._id);
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Returns the SHA1s of the commits that keep their history: the
+     * branches, the head, and those in the reflogs that are still here.
+     */
+    private Set<String> tips() {
+        Set<String> tips = new TreeSet<>();
+        for (ObjectId tip : _branches.values()) {
+            tips.add(tip.toString());
+        }
+        tips.add(_head);
+        for (String id : new RefLog(Main.getGitlet()).ids()) {
+            if (store().contains(ObjectStore.COMMITS, id)) {
+                tips.add(id);
+            }
+        }
+        return tips;
+    }
+
+    /**
+     * Returns the SHA1s of the objects reachable from any branch, the head,
+     * a reflog or the staging area, by kind.
+     */
+    public Map<String, Set<String>> reachableObjects() {
+        Set<String> commits = new HashSet<>();
+        for (String tip : tips()) {
+            commits.addAll(findHistory(tip));
+        }
+        Set<String> blobs = new HashSet<>(_stagingArea.values());
+        blobs.addAll(_stagedForRemoval.values());
+        for (String commitID : commits) {
+            blobs.addAll(readCommit(commitID).getFiles().blobs());
+        }
+        Set<String> chunks = new HashSet<>();
+        Set<String> present = store().idSet(ObjectStore.BLOBS);
+        for (String blobID : blobs) {
+            if (present.contains(blobID)) {
+                chunks.addAll(store().chunks(blobID));
+            }
+        }
+        Map<String, Set<String>> result = new HashMap<>();
+        result.put(ObjectStore.COMMITS, commits);
+        result.put(ObjectStore.BLOBS, blobs);
+        result.put(ObjectStore.CHUNKS, chunks);
+        return result;
+    }
+
+    /**
+     * Returns the SHA1s of COMMITID and all its ancestors here, as a set
+     * that keeps them as bytes: the cheaper form for walks that only ask
+     * whether a commit was seen.
+     */
+    public ObjectIdSet ancestry(String commitID) {
+        ObjectIdSet shallow = shallowIds();
+        Queue<ObjectId> fringe = new ArrayDeque<>();
+        fringe.add(ObjectId.fromHex(commitID));
+        ObjectIdSet ancestors = new ObjectIdSet();
+        while (!fringe.isEmpty()) {
+            ObjectId iD = fringe.poll();
+            if (ancestors.add(iD) && !shallow.contains(iD)) {
+                addParents(readCommit(iD.toString()), fringe);
+            }
+        }
+        return ancestors;
+    }
+
     public HashSet<String> findHistory(String commitID) {
-        Queue<String> fringe = new ArrayDeque<>();
-        fringe.add(commitID);
+        ObjectIdSet shallow = shallowIds();
+        Queue<ObjectId> fringe = new ArrayDeque<>();
+        fringe.add(ObjectId.fromHex(commitID));
+        ObjectIdSet seen = new ObjectIdSet();
         HashSet<String> ancestors = new HashSet<>();
         while (!fringe.isEmpty()) {
-            String iD = fringe.poll();
-            if (!ancestors.contains(iD)) {
-                ancestors.add(iD);
-                Commit thisCommit = Utils.readObject(Utils.join(_commits,
-                        iD), Commit.class);
-                if (!thisCommit.getParent().equals("")) {
-                    fringe.add(thisCommit.getParent());
-                }
-                if (!thisCommit.getSecondParent().equals("")) {
-                    fringe.add(thisCommit.getSecondParent());
+            ObjectId iD = fringe.poll();
+            if (seen.add(iD)) {
+                ancestors.add(iD.toString());
+                if (!shallow.contains(iD)) {
+                    addParents(readCommit(iD.toString()), fringe);
                 }
             }
         }
         return ancestors;
     }
+
+    /**
+     * Adds the parents of COMMIT to FRINGE.
+     */
+    private static void addParents(Commit commit, Queue<ObjectId> fringe) {
+        if (commit.getParentId() != null) {
+            fringe.add(commit.getParentId());
+        }
+        if (commit.getSecondParentId() != null) {
+            fringe.add(commit.getSecondParentId());
+        }
+    }
+
+    /**
+     * Returns the shallow commits, as a set of IDs.
+     */
+    private ObjectIdSet shallowIds() {
+        ObjectIdSet result = new ObjectIdSet();
+        for (String commitID : _shallow) {
+            result.add(commitID);
+        }
+        return result;
+    }
+
     public Commit readCommit(String commitID) {
-        File address = Utils.join(_commits, commitID);
-        Commit obj = Utils.readObject(address, Commit.class);
-        return obj;
+        return store().readCommit(commitID);
+    }
+
+    /**
+     * Returns the blob whose SHA1 is BLOBID. A blob left out by a blobless
+     * fetch is copied from the promisor remote the first time it is read,
+     * and kept here from then on.
+     */
+    public Blob readBlob(String blobID) {
+        fetchPromised(blobID);
+        return store().readBlob(blobID);
+    }
+
+    /**
+     * Writes the content of the blob whose SHA1 is BLOBID to FILE, a chunk
+     * at a time if the blob is chunked.
+     */
+    public void writeBlobTo(String blobID, File file) {
+        fetchPromised(blobID);
+        store().writeBlobTo(blobID, file);
+    }
+
+    /**
+     * Copies the blob whose SHA1 is BLOBID, and its chunks, from the
+     * promisor remote if it was left out by a blobless fetch.
+     */
+    private void fetchPromised(String blobID) {
+        if (_promisor != null
+                && !store().contains(ObjectStore.BLOBS, blobID)) {
+            ObjectStore remote =
+                    new ObjectStore(new File(_remotes.get(_promisor)));
+            if (!remote.contains(ObjectStore.BLOBS, blobID)) {
+                Main.errorAndExit("Blob " + blobID + " is missing, and "
+                        + "remote " + _promisor + " does not have it.");
+            }
+            for (String chunk : remote.chunks(blobID)) {
+                store().writeRaw(ObjectStore.CHUNKS, chunk,
+                        remote.readRaw(ObjectStore.CHUNKS, chunk));
+            }
+            store().writeRaw(ObjectStore.BLOBS, blobID,
+                    remote.readRaw(ObjectStore.BLOBS, blobID));
+        }
+    }
+
+    /** Saves BLOB in this repo. */
+    public void writeBlob(Blob blob) {
+        store().writeBlob(blob.getSHA1(), blob);
+    }
+
+    /** Returns the index of the commit messages of this repo. */
+    public MessageIndex messages() {
+        return new MessageIndex(store());
+    }
+
+    /** Returns the object store of this repo. */
+    public ObjectStore store() {
+        if (_store == null) {
+            _store = new ObjectStore(Main.getGitlet());
+        }
+        return _store;
     }
 
     public String abbreviateExists(String shortID) {
+        Matcher ref = REFLOG_REF.matcher(shortID);
+        if (ref.matches()) {
+            return reflogLookup(ref.group(1), ref.group(2));
+        }
         String completeID = "";
-        List<String> allCommits = Utils.plainFilenamesIn(_commits);
+        List<String> allCommits = store().ids(ObjectStore.COMMITS);
         for (int i = 0; i < allCommits.size(); i++) {
             if (allCommits.get(i).startsWith(shortID)) {
                 completeID = allCommits.get(i);
@@ -903,4 +1979,38 @@ public class Repo implements Serializable {
         }
         return completeID;
     }
+
+    /**
+     * Returns the SHA1 that REF, the head or a branch, named at SELECTOR:
+     * the Nth newest entry of its log if SELECTOR is a number N, else the
+     * newest entry made no later than the date SELECTOR. Returns an empty
+     * string if there is no such entry.
+     */
+    private String reflogLookup(String ref, String selector) {
+        RefLog log = new RefLog(Main.getGitlet());
+        RefLog.Entry entry = null;
+        if (selector.matches("\\d+")) {
+            try {
+                entry = log.get(ref, Integer.parseInt(selector));
+            } catch (NumberFormatException excp) {
+                return "";
+            }
+        } else {
+            for (String format : REFLOG_DATE_FORMATS) {
+                SimpleDateFormat parser = new SimpleDateFormat(format);
+                parser.setLenient(false);
+                try {
+                    entry = log.at(ref, parser.parse(selector).getTime());
+                    break;
+                } catch (ParseException excp) {
+                    continue;
+                }
+            }
+        }
+        if (entry == null || !store().contains(ObjectStore.COMMITS,
+                entry.getNewId())) {
+            return "";
+        }
+        return entry.getNewId();
+    }
 }
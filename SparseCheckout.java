@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The files of a sparse checkout: those whose names match at least one
+ *  of a list of glob patterns, such as *.java or src-*. Only those files
+ *  are written to the working directory by checkout, reset and merge, or
+ *  looked for by status; the rest stay in the commits untouched. The
+ *  patterns are kept one per line in the file sparse in .gitlet, whose
+ *  absence means every file is checked out.
+ *  @author Jackie Lian
+ */
+class SparseCheckout {
+
+    /** Name of the file in .gitlet holding the patterns. */
+    static final String SPARSE_FILE = "sparse";
+
+    /** The checkout of the files matching PATTERNS, or of every file if
+     *  PATTERNS is null. */
+    SparseCheckout(List<String> patterns) {
+        _patterns = patterns;
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                _matchers.add(FileSystems.getDefault()
+                        .getPathMatcher("glob:" + pattern));
+            }
+        }
+    }
+
+    /** Returns the sparse checkout of the repository whose .gitlet folder
+     *  is GITLET. */
+    static SparseCheckout read(File gitlet) {
+        File file = Utils.join(gitlet, SPARSE_FILE);
+        if (!file.isFile()) {
+            return new SparseCheckout(null);
+        }
+        String contents = Utils.readContentsAsString(file);
+        List<String> patterns = new ArrayList<>();
+        for (String line : contents.split("\n")) {
+            if (!line.isEmpty()) {
+                patterns.add(line);
+            }
+        }
+        return new SparseCheckout(patterns);
+    }
+
+    /** Records this as the sparse checkout of the repository whose
+     *  .gitlet folder is GITLET. */
+    void write(File gitlet) {
+        File file = Utils.join(gitlet, SPARSE_FILE);
+        if (_patterns == null) {
+            file.delete();
+        } else {
+            Utils.writeContents(file, String.join("\n", _patterns) + "\n");
+        }
+    }
+
+    /** Returns true iff the file NAME is checked out. */
+    boolean contains(String name) {
+        if (_patterns == null) {
+            return true;
+        }
+        for (PathMatcher matcher : _matchers) {
+            if (matcher.matches(Paths.get(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true iff every file is checked out. */
+    boolean isFull() {
+        return _patterns == null;
+    }
+
+    /** Returns the patterns, or an empty list if every file is checked
+     *  out. */
+    List<String> getPatterns() {
+        return _patterns == null ? Collections.emptyList()
+                : Collections.unmodifiableList(_patterns);
+    }
+
+    /** The patterns, or null. */
+    private final List<String> _patterns;
+
+    /** A matcher for each pattern. */
+    private final List<PathMatcher> _matchers = new ArrayList<>();
+}
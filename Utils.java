@@ -3,7 +3,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
@@ -11,13 +13,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -26,41 +28,83 @@ import java.util.List;
  */
 class Utils {
 
-    /* SHA-1 HASH VALUES. */
+    /* OBJECT HASH VALUES. */
 
-    /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
-    static final int UID_LENGTH = 40;
-
-    /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+    /** Returns the object hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays and Strings, as a hexadecimal numeral
+     *  as long as the IDs of the repository's HashAlgorithm: SHA-1 unless
+     *  it chose another. The name is kept from when it was always
+     *  SHA-1. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        return toHex(digest(vals));
+    }
+
+    /** Returns the object hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays and Strings, as an ObjectId of the
+     *  whole hash. */
+    static ObjectId sha1Id(Object... vals) {
+        byte[] hash = digest(vals);
+        return ObjectId.fromBytes(hash, 0, hash.length);
+    }
+
+    /** Returns the bytes of the hash of the concatenation of VALS, which
+     *  may be any mixture of byte arrays and Strings. */
+    private static byte[] digest(Object... vals) {
+        MessageDigest md = HashAlgorithm.current().digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return md.digest();
     }
 
-    /** Returns the SHA-1 hash of the concatenation of the strings in
+    /** Returns the object hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the lower-case hexadecimal numeral for the bytes BYTES. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            int pair = 2 * (bytes[i] & 0xff);
+            result[2 * i] = HEX_PAIRS[pair];
+            result[2 * i + 1] = HEX_PAIRS[pair + 1];
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("not hexadecimal: " + hex);
+            }
+            result[i] = (byte) (high << 4 | low);
+        }
+        return result;
+    }
+
+    /** The two hexadecimal digits of each byte value, in order. */
+    private static final char[] HEX_PAIRS = new char[512];
+
+    static {
+        String digits = "0123456789abcdef";
+        for (int b = 0; b < 256; b += 1) {
+            HEX_PAIRS[2 * b] = digits.charAt(b >> 4);
+            HEX_PAIRS[2 * b + 1] = digits.charAt(b & 0xf);
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -78,6 +122,20 @@ class Utils {
         }
     }
 
+    /** Deletes the file or directory F and everything in it, as far as
+     *  possible. Unlike restrictedDelete, this does not check that F lies
+     *  in a Gitlet working directory, so use it only on files Gitlet made
+     *  for itself. */
+    static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        f.delete();
+    }
+
     /** Deletes the file named FILE if it exists and is not a directory.
      *  Returns true if FILE was deleted, and false otherwise.  Refuses
      *  to delete FILE and throws IllegalArgumentException unless the
@@ -102,6 +160,18 @@ class Utils {
         }
     }
 
+    /** Returns the LENGTH bytes of IN starting at POSITION. */
+    static byte[] readRange(FileChannel in, long position, int length)
+            throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(Math.max(length, 0));
+        while (result.hasRemaining()) {
+            if (in.read(result, position + result.position()) < 0) {
+                throw new EOFException("unexpected end of " + in);
+            }
+        }
+        return result.array();
+    }
+
     /** Return the entire contents of FILE as a String.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
@@ -150,6 +220,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
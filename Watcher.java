@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** The watcher run by gitlet watch, and what other commands learn from
+ *  it. While it runs, the watcher holds a lock on the file lock in the
+ *  folder watch in .gitlet, and appends to the journal there a record of
+ *  each file of the working directory created, changed or deleted, so
+ *  that status and the checks for untracked files need look only at the
+ *  files named since they last looked, however many files there are.
+ *
+ *  The journal starts with a number chosen afresh each time a watcher
+ *  starts, its generation; then each record is a byte giving its kind
+ *  and a UTF string. Events reach a watcher some time after the change,
+ *  so a command that wants every change made before it started makes a
+ *  cookie file in the folder cookies, which the watcher also watches, and
+ *  reads the journal only as far as the record of its cookie. A command
+ *  that finds no watcher, gets no answer, or finds that events were lost
+ *  looks at every file instead.
+ *  @author Jackie Lian
+ */
+class Watcher {
+
+    /** Name of the folder in .gitlet used by the watcher. */
+    static final String WATCH_DIR = "watch";
+
+    /** Longest a command waits for the watcher to see its cookie, in
+     *  milliseconds. */
+    static final long COOKIE_TIMEOUT = 1000;
+
+    /** Kind of a record naming a file that changed. */
+    private static final byte PATH = 1;
+
+    /** Kind of a record naming a cookie the watcher saw. */
+    private static final byte COOKIE = 2;
+
+    /** Kind of a record saying that events were lost. */
+    private static final byte LOST = 3;
+
+    /** Milliseconds between looks at the journal while waiting for a
+     *  cookie. */
+    private static final long POLL_INTERVAL = 2;
+
+    /** The watcher of the working directory CWD, whose .gitlet folder is
+     *  GITLET. */
+    Watcher(File cwd, File gitlet) {
+        _cwd = cwd;
+        _dir = Utils.join(gitlet, WATCH_DIR);
+    }
+
+    /** Watches the working directory until it is deleted, or the process
+     *  is stopped. Exits with a message if another watcher is running. */
+    void run() throws IOException {
+        File cookies = Utils.join(_dir, "cookies");
+        cookies.mkdirs();
+        FileChannel lockChannel = FileChannel.open(
+                Utils.join(_dir, "lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            Main.errorAndExit("A watcher is already running.");
+        }
+        try (FileOutputStream journal =
+                     new FileOutputStream(Utils.join(_dir, "journal"));
+             WatchService service =
+                     FileSystems.getDefault().newWatchService()) {
+            journal.write(ByteBuffer.allocate(8)
+                    .putLong(new Random().nextLong()).array());
+            WatchKey tree = _cwd.toPath().register(service,
+                    ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            cookies.toPath().register(service, ENTRY_CREATE);
+            System.out.println("Watching " + _cwd + ".");
+            while (true) {
+                WatchKey key;
+                try {
+                    key = service.take();
+                } catch (InterruptedException excp) {
+                    return;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        journal.write(record(LOST, ""));
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (key != tree) {
+                        journal.write(record(COOKIE, name));
+                        Utils.join(cookies, name).delete();
+                    } else if (!name.equals(".gitlet")) {
+                        journal.write(record(PATH, name));
+                    }
+                }
+                if (!key.reset() && key == tree) {
+                    return;
+                }
+            }
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    /** Returns the changes to the working directory since SINCE was
+     *  taken, or null if there is no watcher to ask. SINCE may be null,
+     *  in which case the changes are all marked for a full look. */
+    Changes changes(Snapshot since) {
+        if (!running()) {
+            return null;
+        }
+        File cookie = Utils.join(_dir, "cookies", "cookie-"
+                + ProcessHandle.current().pid() + "-" + System.nanoTime());
+        try {
+            if (!cookie.createNewFile()) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            Changes result = read(since, cookie.getName());
+            if (result != null) {
+                return result;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        cookie.delete();
+        return null;
+    }
+
+    /** Returns true iff a watcher holds the lock. */
+    private boolean running() {
+        File lockFile = Utils.join(_dir, "lock");
+        if (!lockFile.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the changes recorded in the journal after SINCE and up to
+     *  the record of the cookie COOKIE, or null if that record is not
+     *  there yet. */
+    private Changes read(Snapshot since, String cookie) {
+        long generation;
+        long start;
+        byte[] journal;
+        try (RandomAccessFile file =
+                     new RandomAccessFile(Utils.join(_dir, "journal"), "r")) {
+            if (file.length() < 8) {
+                return null;
+            }
+            generation = file.readLong();
+            start = 8;
+            if (since != null && since._generation == generation
+                    && since._offset <= file.length()) {
+                start = since._offset;
+            }
+            journal = new byte[(int) (file.length() - start)];
+            file.seek(start);
+            file.readFully(journal);
+        } catch (IOException excp) {
+            return null;
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(journal);
+        DataInputStream in = new DataInputStream(bytes);
+        Changes result = new Changes(generation, start == 8);
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                if (kind == LOST) {
+                    result._rescan = true;
+                } else if (kind == PATH) {
+                    result._paths.add(name);
+                } else if (name.equals(cookie)) {
+                    result._offset = start + journal.length
+                            - bytes.available();
+                    return result;
+                }
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the journal record of kind KIND about NAME. */
+    private static byte[] record(byte kind, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        out.writeUTF(name);
+        return bytes.toByteArray();
+    }
+
+    /** The files of the working directory named by a watcher between a
+     *  Snapshot and a cookie. */
+    static class Changes {
+
+        /** Changes seen by the watcher of generation GENERATION, which
+         *  call for a full look iff RESCAN. */
+        Changes(long generation, boolean rescan) {
+            _generation = generation;
+            _rescan = rescan;
+        }
+
+        /** Returns true iff the changes are incomplete, so that every file
+         *  must be looked at. */
+        boolean needsRescan() {
+            return _rescan;
+        }
+
+        /** Returns the names of the files that changed. */
+        Set<String> getPaths() {
+            return _paths;
+        }
+
+        /** Generation of the watcher. */
+        private final long _generation;
+
+        /** True iff every file must be looked at. */
+        private boolean _rescan;
+
+        /** Position in the journal just past the cookie. */
+        private long _offset;
+
+        /** Names of the files that changed. */
+        private final Set<String> _paths = new TreeSet<>();
+    }
+
+    /** What status found at one point in the journal: the head, staged
+     *  files and files staged for removal it compared the working files
+     *  with, and the files it reported. Every other file then matched. */
+    static class Snapshot implements Serializable {
+
+        /** Fixed, since a Snapshot is stored in the repo file. */
+        private static final long serialVersionUID = 1L;
+
+        /** The state after CHANGES, when the head was HEAD, the staged
+         *  files STAGED, those staged for removal REMOVED, and the files
+         *  reported by status REPORTED. */
+        Snapshot(Changes changes, String head, Map<String, String> staged,
+                 Map<String, String> removed, Set<String> reported) {
+            _generation = changes._generation;
+            _offset = changes._offset;
+            _head = head;
+            _staged = new TreeMap<>(staged);
+            _removed = new TreeMap<>(removed);
+            _reported = new TreeSet<>(reported);
+        }
+
+        /** Returns the head then. */
+        String getHead() {
+            return _head;
+        }
+
+        /** Returns the staged files then. */
+        Map<String, String> getStaged() {
+            return _staged;
+        }
+
+        /** Returns the files staged for removal then. */
+        Map<String, String> getRemoved() {
+            return _removed;
+        }
+
+        /** Returns the files status reported then. */
+        Set<String> getReported() {
+            return _reported;
+        }
+
+        /** Generation of the watcher. */
+        private final long _generation;
+
+        /** Position in the journal. */
+        private final long _offset;
+
+        /** SHA1 of the head commit. */
+        private final String _head;
+
+        /** The staged files, with their blobs. */
+        private final TreeMap<String, String> _staged;
+
+        /** The files staged for removal, with their blobs. */
+        private final TreeMap<String, String> _removed;
+
+        /** The files reported. */
+        private final TreeSet<String> _reported;
+    }
+
+    /** The working directory. */
+    private final File _cwd;
+
+    /** The folder in .gitlet used by the watcher. */
+    private final File _dir;
+}
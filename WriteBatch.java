@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** The files written to a store by one command, which must be on disk
+ *  before the refs naming them are. In a durable repository, one with the
+ *  file durable in .gitlet, a command's objects are written as usual and
+ *  only collected here; when the command ends, publish forces all of them
+ *  to disk together, then each folder they were added to once, and only
+ *  then replaces the file holding the refs, atomically. A crash may lose
+ *  the command, but never leaves refs naming objects that are not there.
+ *  Every file is still forced on its own, not only its folder: forcing a
+ *  folder makes its entries durable, but not the contents of the files
+ *  they name. What the batch saves is forcing as the command goes: the
+ *  files are forced once each, at its end, in parallel, and each folder
+ *  once however many of its files were written. Other repositories skip
+ *  all of this and write as they always have.
+ *  @author Jackie Lian
+ */
+class WriteBatch {
+
+    /** Name of the file in .gitlet that makes a repository durable. */
+    static final String DURABLE_FILE = "durable";
+
+    /** A batch that does nothing unless DURABLE. */
+    WriteBatch(boolean durable) {
+        _durable = durable;
+    }
+
+    /** Returns true iff the repository whose .gitlet folder is GITLET is
+     *  durable. */
+    static boolean isDurable(File gitlet) {
+        return Utils.join(gitlet, DURABLE_FILE).isFile();
+    }
+
+    /** Returns true iff this batch forces what it is given. */
+    boolean isDurable() {
+        return _durable;
+    }
+
+    /** Records that FILE, and its entry in its folder, must be forced to
+     *  disk. */
+    synchronized void add(File file) {
+        if (_durable) {
+            _files.add(file);
+            _folders.add(file.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /** Forces every file recorded since the last call, each on its own
+     *  and in parallel, then each of their folders once. */
+    void sync() {
+        List<File> files;
+        List<File> folders;
+        synchronized (this) {
+            files = new ArrayList<>(_files);
+            folders = new ArrayList<>(_folders);
+            _files.clear();
+            _folders.clear();
+        }
+        try {
+            files.parallelStream().forEach(WriteBatch::force);
+            folders.parallelStream().forEach(WriteBatch::force);
+        } catch (UncheckedIOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes DATA the contents of FILE. In a durable batch, first forces
+     *  everything recorded, then writes DATA beside FILE, forces it, and
+     *  moves it over FILE, so that FILE is always whole. */
+    void publish(File file, byte[] data) {
+        if (!_durable) {
+            Utils.writeContents(file, data);
+            return;
+        }
+        sync();
+        File tmp = Utils.join(file.getAbsoluteFile().getParentFile(),
+                file.getName() + ".tmp");
+        Utils.writeContents(tmp, data);
+        try {
+            force(tmp);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            force(file.getAbsoluteFile().getParentFile());
+        } catch (IOException | UncheckedIOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces FILE, which may be a folder, to disk. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** True iff this batch forces what it is given. */
+    private final boolean _durable;
+
+    /** Files to force. */
+    private final Set<File> _files = new LinkedHashSet<>();
+
+    /** Folders to force. */
+    private final Set<File> _folders = new LinkedHashSet<>();
+}